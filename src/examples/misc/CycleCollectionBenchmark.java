@@ -0,0 +1,98 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import java.util.Random;
+import lib.util.persistent.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+
+// Cycle collection over synthetic cyclic garbage. "build" makes NUM_OBJECTS two-slot arrays in rings of
+// CYCLE_LENGTH, each slot 0 pointing at the next node and slot 1 at a random node of the same ring, and roots
+// the rings; "collect" unroots them, which leaves one purple candidate per ring, and times the full collection.
+// Collection is destructive, so copy the pool after "build" to compare runs with -Dpcj.cycleCollection.threads.
+// Needs -Dpcj.heapStats=true; objects collected are counted as the regions freed, each array being one.
+public class CycleCollectionBenchmark {
+    static final String NAME = "CycleCollectionBenchmark";
+    static final int BATCH = 1000;     // objects created per transaction
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) {
+        if (args.length < 1 || args[0].equals("build") && args.length < 3 || !Config.ENABLE_HEAP_STATS) {
+            System.out.println("Usage: java -Dpcj.heapStats=true examples.misc.CycleCollectionBenchmark build NUM_OBJECTS CYCLE_LENGTH | collect");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        System.out.format("heap open: %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        if (args[0].equals("build")) {
+            int NUM_OBJECTS = Integer.parseInt(args[1]);
+            int CYCLE_LENGTH = Integer.parseInt(args[2]);
+            int rings = NUM_OBJECTS / CYCLE_LENGTH;
+            PersistentArray<AnyPersistent> heads = new PersistentArray<>(rings);
+            ObjectDirectory.put(NAME, heads);
+            Random random = new Random(42);
+            start = System.nanoTime();
+            for (int r = 0; r < rings; r++) {
+                PersistentArray<AnyPersistent>[] ring = new PersistentArray[CYCLE_LENGTH];
+                for (int i = 0; i < CYCLE_LENGTH; i += BATCH) {
+                    int from = i;
+                    Transaction.run(() -> {
+                        for (int j = from; j < Math.min(from + BATCH, CYCLE_LENGTH); j++) ring[j] = new PersistentArray<>(2);
+                    });
+                }
+                for (int i = 0; i < CYCLE_LENGTH; i += BATCH) {
+                    int from = i;
+                    Transaction.run(() -> {
+                        for (int j = from; j < Math.min(from + BATCH, CYCLE_LENGTH); j++) {
+                            ring[j].set(0, ring[(j + 1) % CYCLE_LENGTH]);
+                            ring[j].set(1, ring[random.nextInt(CYCLE_LENGTH)]);
+                        }
+                    });
+                }
+                heads.set(r, ring[0]);
+            }
+            System.out.format("built %,d rings of %,d objects in %,d ms%n", rings, CYCLE_LENGTH, (System.nanoTime() - start) / 1_000_000);
+        }
+        else {
+            PersistentArray<AnyPersistent> heads = ObjectDirectory.get(NAME, PersistentArray.class);
+            if (heads == null) {
+                System.out.println("nothing to collect; run build first");
+                System.exit(1);
+            }
+            long before = regionCount();
+            start = System.nanoTime();
+            for (int r = 0; r < heads.length(); r++) heads.set(r, null);
+            System.out.format("unrooted %,d rings in %,d ms%n", heads.length(), (System.nanoTime() - start) / 1_000_000);
+            start = System.nanoTime();
+            Transaction.run(CycleCollector::collect);
+            long nanos = System.nanoTime() - start;
+            long freed = before - regionCount();
+            System.out.format("collected %,d objects in %,d ms (%,.0f objects/sec) with %d threads%n",
+                freed, nanos / 1_000_000, freed / (nanos / 1e9), Config.CYCLE_COLLECTION_THREADS);
+        }
+    }
+
+    static long regionCount() {
+        return HeapStats.current.snapshot(-1, -1, -1).getRegionCount();
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import lib.util.persistent.*;
+import lib.util.persistent.types.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+import lib.xpersistent.XHeap;
+import lib.xpersistent.XRoot;
+
+// Times dropping the last reference to a long list until every node it frees in one cascade is freed,
+// most of them on the shared thread that drains queued frees after the dropping transaction, and reports
+// the longest top-level transaction as a measure of how much of it one transaction does. Build the list
+// in one run and drop it in the next, so the instances created while building no longer hold counts.
+// Compare -Dpcj.freeChunk values; a chunk larger than the list frees it all in one transaction.
+// Needs -Dpcj.heapStats=true, which counts the nodes freed by type.
+public class FreeCascadeBenchmark {
+
+    static class Node extends PersistentObject {
+        private static final LongField VALUE = new LongField();
+        private static final ObjectField<Node> NEXT = new ObjectField<>();
+        public static final ObjectType<Node> TYPE = ObjectType.withFields(Node.class, VALUE, NEXT);
+
+        public Node(long value, Node next) {
+            super(TYPE);
+            setLongField(VALUE, value);
+            setObjectField(NEXT, next);
+        }
+
+        public Node(ObjectPointer<Node> p) { super(p); }
+    }
+
+    // the list hangs off a holder, so dropping it does not materialize (and count) its head
+    static class Holder extends PersistentObject {
+        private static final ObjectField<Node> LIST = new ObjectField<>();
+        public static final ObjectType<Holder> TYPE = ObjectType.withFields(Holder.class, LIST);
+
+        public Holder(Node list) {
+            super(TYPE);
+            setObjectField(LIST, list);
+        }
+
+        public Holder(ObjectPointer<Holder> p) { super(p); }
+
+        void drop() { setObjectField(LIST, null); }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || !(args[0].equals("build") && args.length > 1 || args[0].equals("drop")) || !Config.ENABLE_HEAP_STATS) {
+            System.out.println("Usage: java -Dpcj.heapStats=true examples.misc.FreeCascadeBenchmark build NUM_NODES | drop");
+            System.exit(1);
+        }
+        XHeap heap = (XHeap)PersistentMemoryProvider.getDefaultProvider().getHeap();
+        heap.open();
+        if (args[0].equals("build")) {
+            int NUM_NODES = Integer.parseInt(args[1]);
+            Node head = null;
+            for (int i = 0; i < NUM_NODES; i++) head = new Node(i, head);
+            ObjectDirectory.put("FreeCascadeBenchmark", new Holder(head));
+            System.out.format("built a list of %,d nodes\n", NUM_NODES);
+            return;
+        }
+        Holder holder = ObjectDirectory.get("FreeCascadeBenchmark", Holder.class);
+        System.out.format("free chunk: %d\n", Config.FREE_CHUNK);
+        Stats.enable(true);
+        Stats.current.clear();
+        long start = System.nanoTime();
+        holder.drop();
+        XRoot root = (XRoot)heap.getRoot();
+        while (root.hasPendingFrees()) Util.sleep(1);       // the rest of the list is freed on another thread
+        long elapsed = System.nanoTime() - start;
+        LatencyHistogram.Snapshot latencies = Stats.current.latencies.transactions.snapshot();
+        long freed = nodesFreed(heap);
+        System.out.format("%,d nodes freed in %,d ms, %.2f us/node, %,d top-level transactions, longest %,d us\n", freed, elapsed / 1_000_000, (double)elapsed / 1000 / Math.max(1, freed), Stats.current.transactions.topLevel.get(), latencies.getMax() / 1000);
+    }
+
+    static long nodesFreed(XHeap heap) {
+        HeapStats.TypeUsage usage = heap.getHeapStats().getTypes().get(Node.TYPE.getName());
+        return usage == null ? 0 : usage.getFreed();
+    }
+}
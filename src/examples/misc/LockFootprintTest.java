@@ -0,0 +1,89 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import java.util.Random;
+import lib.util.persistent.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+
+// Heap footprint of materialized objects and GUPS-style read/update throughput.
+// Run twice: the first run creates the array, the second measures objects reconstructed
+// from persistent memory rather than ones constructed (and therefore locked) in this JVM.
+public class LockFootprintTest {
+    static volatile long sink;
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Usage: examples.misc.LockFootprintTest NUM_OBJECTS NUM_THREADS NUM_ITERATIONS");
+            System.exit(1);
+        }
+        int NUM_OBJECTS = Integer.parseInt(args[0]);
+        int NUM_THREADS = Integer.parseInt(args[1]);
+        int NUM_ITERATIONS = Integer.parseInt(args[2]);
+
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        PersistentArray<PersistentInteger> array = ObjectDirectory.get("LockFootprintTest", PersistentArray.class);
+        if (array == null || array.length() != NUM_OBJECTS) {
+            System.out.println("creating array of " + NUM_OBJECTS + " objects");
+            array = new PersistentArray<>(NUM_OBJECTS);
+            for (int i = 0; i < NUM_OBJECTS; i++) array.set(i, new PersistentInteger(i));
+            ObjectDirectory.put("LockFootprintTest", array);
+        }
+        System.out.println("optimistic reads: " + Config.USE_OPTIMISTIC_READS);
+
+        long before = usedHeap();
+        PersistentInteger[] live = new PersistentInteger[NUM_OBJECTS];
+        for (int i = 0; i < NUM_OBJECTS; i++) live[i] = array.get(i);
+        long after = usedHeap();
+        System.out.format("materialized %d objects, %.1f heap bytes per object%n", NUM_OBJECTS, (double)(after - before) / NUM_OBJECTS);
+
+        // 9 reads per update, random indexes
+        final PersistentArray<PersistentInteger> a = array;
+        Thread[] threads = new Thread[NUM_THREADS];
+        long start = System.nanoTime();
+        for (int j = 0; j < threads.length; j++) {
+            threads[j] = new Thread(() -> {
+                Random rnd = new Random();
+                long sum = 0;
+                for (int i = 0; i < NUM_ITERATIONS; i++) {
+                    int index = rnd.nextInt(NUM_OBJECTS);
+                    if (i % 10 == 9) a.set(index, new PersistentInteger(i));
+                    else sum += a.get(index).intValue();
+                }
+                sink = sum;
+            });
+            threads[j].start();
+        }
+        for (Thread t : threads) t.join();
+        long end = System.nanoTime();
+        long ops = (long)NUM_THREADS * NUM_ITERATIONS;
+        System.out.format("%d ops in %.3f seconds, %.0f ops/sec%n", ops, (end - start) / 1e9, ops / ((end - start) / 1e9));
+        sink = live.length;
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
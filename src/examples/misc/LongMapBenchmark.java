@@ -0,0 +1,112 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import lib.util.persistent.ConcurrentLongMap;
+
+// ObjectCache's address map: ConcurrentLongMap against the ConcurrentHashMap<Long, ...> it replaced.
+// Keys are 64-byte aligned, address-like longs; every entry maps to one shared value so only the
+// map's own footprint is measured. No persistent heap is needed. Run with a large -Xmx for 10M entries.
+public class LongMapBenchmark {
+    static final Object VALUE = new Object();
+    static volatile Object sink;
+
+    interface Table {
+        void put(long key, Object value);
+        Object get(long key);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: examples.misc.LongMapBenchmark NUM_ENTRIES NUM_THREADS");
+            System.exit(1);
+        }
+        int NUM_ENTRIES = Integer.parseInt(args[0]);
+        int NUM_THREADS = Integer.parseInt(args[1]);
+
+        Random random = new Random(42);
+        long[] keys = new long[NUM_ENTRIES];
+        for (int i = 0; i < NUM_ENTRIES; i++) keys[i] = ((random.nextLong() >>> 20) | 1) << 6;
+        int[] order = new int[NUM_ENTRIES];
+        for (int i = 0; i < NUM_ENTRIES; i++) order[i] = random.nextInt(NUM_ENTRIES);
+
+        for (int round = 0; round < 2; round++) {
+            run("ConcurrentHashMap", keys, order, NUM_THREADS, () -> {
+                ConcurrentHashMap<Long, Object> map = new ConcurrentHashMap<>();
+                return new Table() {
+                    public void put(long key, Object value) {map.put(key, value);}
+                    public Object get(long key) {return map.get(key);}
+                };
+            });
+            run("ConcurrentLongMap", keys, order, NUM_THREADS, () -> {
+                ConcurrentLongMap<Object> map = new ConcurrentLongMap<>();
+                return new Table() {
+                    public void put(long key, Object value) {map.put(key, value);}
+                    public Object get(long key) {return map.get(key);}
+                };
+            });
+        }
+    }
+
+    static void run(String name, long[] keys, int[] order, int threads, java.util.function.Supplier<Table> factory) throws Exception {
+        long before = usedMemory();
+        Table table = factory.get();
+        long start = System.nanoTime();
+        for (long key : keys) table.put(key, VALUE);
+        long putNanos = System.nanoTime() - start;
+        long footprint = usedMemory() - before;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i : order) if (table.get(keys[i]) != null) found++;
+        long getNanos = System.nanoTime() - start;
+        if (found != order.length) throw new AssertionError(name + ": lost entries");
+
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            ts[t] = new Thread(() -> {
+                Object last = null;
+                for (int i = first; i < order.length; i += threads) last = table.get(keys[order[i]]);
+                sink = last;
+            });
+        }
+        start = System.nanoTime();
+        for (Thread t : ts) t.start();
+        for (Thread t : ts) t.join();
+        long parallelNanos = System.nanoTime() - start;
+
+        System.out.format("%-18s put %6.1f ns/op   get %6.1f ns/op   %d-thread get %6.1f Mops/s   %6.1f bytes/entry%n",
+            name, (double)putNanos / keys.length, (double)getNanos / order.length, threads,
+            order.length * 1e3 / parallelNanos, (double)footprint / keys.length);
+        sink = table;
+        sink = null;
+    }
+
+    static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
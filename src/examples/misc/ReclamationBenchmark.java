@@ -0,0 +1,90 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import lib.util.persistent.*;
+import lib.util.persistent.types.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+import lib.xpersistent.XHeap;
+
+// Times how long persistent memory takes to come back once the application drops every instance of a
+// large set of objects, i.e. how fast ObjectCache's collector threads drain the reference queue. Needs a
+// bounded cache (-Dpcj.objectCache.capacity), since otherwise the cache holds instances softly and they are
+// only collected under memory pressure. Compare -Dpcj.objectCache.collectorBatch=1 (a transaction per
+// instance) with larger batches, and with -Dpcj.objectCache.collectorThreads on machines with more cores.
+public class ReclamationBenchmark {
+
+    static class Cell extends PersistentObject {
+        private static final LongField VALUE = new LongField();
+        public static final ObjectType<Cell> TYPE = ObjectType.withFields(Cell.class, VALUE);
+
+        public Cell(long value) {
+            super(TYPE);
+            setLongField(VALUE, value);
+        }
+
+        public Cell(ObjectPointer<Cell> p) { super(p); }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1 || Config.OBJECT_CACHE_CAPACITY == 0 || !Config.ENABLE_HEAP_STATS) {
+            System.out.println("Usage: java -Dpcj.objectCache.capacity=N -Dpcj.heapStats=true examples.misc.ReclamationBenchmark NUM_OBJECTS");
+            System.exit(1);
+        }
+        int NUM_OBJECTS = Integer.parseInt(args[0]);
+        final long TIMEOUT = 600_000; // ms
+
+        XHeap heap = (XHeap)PersistentMemoryProvider.getDefaultProvider().getHeap();
+        heap.open();
+        System.out.format("collector threads: %d, batch: %d\n", Config.OBJECT_CACHE_COLLECTOR_THREADS, Config.OBJECT_CACHE_COLLECTOR_BATCH);
+        Stats.enable(true);
+        // the first rounds warm up the collector's code paths
+        for (int round = 0; round < 3; round++) {
+            Cell[] cells = new Cell[NUM_OBJECTS];
+            for (int i = 0; i < cells.length; i++) cells[i] = new Cell(i);
+            long allocated = cellCount(heap);
+            cells = null;
+
+            // up to OBJECT_CACHE_CAPACITY instances stay in the cache's CLOCK slots and are not expected back
+            long kept = Math.min(allocated, Config.OBJECT_CACHE_CAPACITY);
+            Stats.current.clear();
+            long start = System.nanoTime();
+            long remaining = allocated;
+            System.gc();
+            while (remaining > kept && System.nanoTime() - start < TIMEOUT * 1_000_000L) {
+                Thread.sleep(10);
+                long count = cellCount(heap);
+                if (count == remaining) System.gc();   // only when the queue has run dry
+                remaining = count;
+            }
+            long elapsed = System.nanoTime() - start;
+            long reclaimed = Math.max(1, allocated - remaining);
+            long transactions = Stats.current.transactions.topLevel.get();
+            System.out.format("%,d of %,d objects reclaimed in %,d ms, %.1f us/object, %.3f top-level transactions/object\n", allocated - remaining, allocated, elapsed / 1_000_000, (double)elapsed / 1000 / reclaimed, (double)transactions / reclaimed);
+        }
+    }
+
+    static long cellCount(XHeap heap) {
+        HeapStats.TypeUsage usage = heap.getHeapStats().getTypes().get(Cell.TYPE.getName());
+        return usage == null ? 0 : usage.getCount();
+    }
+}
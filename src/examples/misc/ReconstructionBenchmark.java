@@ -0,0 +1,90 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import java.lang.reflect.Constructor;
+import lib.util.persistent.*;
+import lib.util.persistent.types.ObjectType;
+import lib.util.persistent.types.Types;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+
+// Reconstruction throughput: the per-type factory against the reflective lookup and call it replaced,
+// on the same pointers, then end-to-end rehydration of objects whose cached instances have been collected.
+public class ReconstructionBenchmark {
+    static final int PASSES = 20;     // of the in-memory constructor calls, per round
+    static volatile Object sink;
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: examples.misc.ReconstructionBenchmark NUM_OBJECTS NUM_ROUNDS");
+            System.exit(1);
+        }
+        int NUM_OBJECTS = Integer.parseInt(args[0]);
+        int NUM_ROUNDS = Integer.parseInt(args[1]);
+
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        PersistentArray<PersistentLong> array = ObjectDirectory.get("ReconstructionBenchmark", PersistentArray.class);
+        if (array == null || array.length() != NUM_OBJECTS) {
+            System.out.println("creating array of " + NUM_OBJECTS + " objects");
+            array = new PersistentArray<>(NUM_OBJECTS);
+            for (int i = 0; i < NUM_OBJECTS; i++) array.set(i, new PersistentLong(i));
+            ObjectDirectory.put("ReconstructionBenchmark", array);
+        }
+
+        ObjectType<PersistentLong> type = Types.objectTypeForClass(PersistentLong.class);
+        ObjectPointer<PersistentLong>[] pointers = new ObjectPointer[NUM_OBJECTS];
+        for (int i = 0; i < NUM_OBJECTS; i++) pointers[i] = (ObjectPointer<PersistentLong>)array.get(i).getPointer();
+
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (ObjectPointer<PersistentLong> p : pointers) {
+                    Constructor<PersistentLong> ctor = PersistentLong.class.getDeclaredConstructor(ObjectPointer.class);
+                    ctor.setAccessible(true);
+                    sink = ctor.newInstance(p);
+                }
+            }
+            long reflective = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (ObjectPointer<PersistentLong> p : pointers) sink = type.newInstance(p);
+            }
+            long factory = System.nanoTime() - start;
+
+            array = null;
+            for (int i = 0; i < 3; i++) System.gc();
+            array = ObjectDirectory.get("ReconstructionBenchmark", PersistentArray.class);
+            start = System.nanoTime();
+            for (int i = 0; i < NUM_OBJECTS; i++) sink = array.get(i);
+            long rehydrate = System.nanoTime() - start;
+
+            System.out.format("round %d: reflective %,.0f/sec, factory %,.0f/sec, rehydration %,.0f/sec%n", round,
+                rate(PASSES * NUM_OBJECTS, reflective), rate(PASSES * NUM_OBJECTS, factory), rate(NUM_OBJECTS, rehydrate));
+        }
+    }
+
+    static double rate(long count, long nanos) {
+        return count / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import lib.util.persistent.*;
+import lib.util.persistent.types.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+
+// Times object field stores that move references around, as list and skip list updates do, with
+// transactions (nested ones included) per store as a measure of reference counting work. Run with and
+// without -Dpcj.deferredRefCounting=true to compare.
+public class ReferenceCountingBenchmark {
+
+    static class Node extends PersistentObject {
+        private static final ObjectField<Node> NEXT = new ObjectField<>();
+        private static final ObjectField<Node> DOWN = new ObjectField<>();
+        public static final ObjectType<Node> TYPE = ObjectType.withFields(Node.class, NEXT, DOWN);
+
+        public Node() { super(TYPE); }
+        public Node(ObjectPointer<Node> p) { super(p); }
+
+        Node next() { return getObjectField(NEXT); }
+        void next(Node next) { setObjectField(NEXT, next); }
+        void down(Node down) { setObjectField(DOWN, down); }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: examples.misc.ReferenceCountingBenchmark NUM_ITERATIONS");
+            System.exit(1);
+        }
+        int NUM_ITERATIONS = Integer.parseInt(args[0]);
+        final int OVERWRITES = 8;
+
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        System.out.println("deferred reference counting: " + Config.DEFERRED_REFERENCE_COUNTING);
+        Node head = new Node();
+        Node[] nodes = new Node[64];
+        for (int i = 0; i < nodes.length; i++) nodes[i] = new Node();
+        for (int i = 0; i < nodes.length - 1; i++) nodes[i].next(nodes[i + 1]);
+        head.next(nodes[0]);
+
+        for (int i = 0; i < 3; i++) {
+            overwrite(head, nodes, NUM_ITERATIONS / 10, OVERWRITES);
+            relink(head, nodes, NUM_ITERATIONS / 10);
+        }
+        Stats.enable(true);
+
+        report("overwrite", NUM_ITERATIONS * (OVERWRITES + 1), () -> overwrite(head, nodes, NUM_ITERATIONS, OVERWRITES));
+        report("relink", NUM_ITERATIONS * 3, () -> relink(head, nodes, NUM_ITERATIONS));
+    }
+
+    // one field set several times per transaction, ending where it started
+    static void overwrite(Node head, Node[] nodes, int n, int overwrites) {
+        for (int i = 0; i < n; i++) {
+            int k = i;
+            Transaction.run(() -> {
+                Node first = head.next();
+                for (int j = 0; j < overwrites - 1; j++) head.down(nodes[(k + j) % nodes.length]);
+                head.down(null);
+                head.next(first);
+            }, head);
+        }
+    }
+
+    // unlinks the node after head and puts it back in front, as a move-to-front list or a skip list splice does
+    static void relink(Node head, Node[] nodes, int n) {
+        for (int i = 0; i < n; i++) {
+            Transaction.run(() -> {
+                Node first = head.next();
+                Node second = first.next();
+                head.next(second);
+                first.next(second);
+                head.next(first);
+            }, head);
+        }
+    }
+
+    static void report(String name, int n, Runnable body) {
+        Stats.current.clear();
+        long start = System.nanoTime();
+        body.run();
+        long end = System.nanoTime();
+        long transactions = Stats.current.transactions.total.get();
+        System.out.format("%-10s %,12d stores %10.1f ns/store %8.2f transactions/store\n", name, n, (double)(end - start) / n, (double)transactions / n);
+    }
+}
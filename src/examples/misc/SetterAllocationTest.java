@@ -0,0 +1,88 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package examples.misc;
+
+import java.lang.management.ManagementFactory;
+import lib.util.persistent.*;
+import lib.util.persistent.types.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+
+// Measures heap bytes allocated per single-field store, both nested inside an
+// enclosing transaction (the setter fast path) and as a top-level transaction.
+public class SetterAllocationTest {
+
+    static class Counter extends PersistentObject {
+        private static final LongField VALUE = new LongField();
+        private static final IntField COUNT = new IntField();
+        public static final ObjectType<Counter> TYPE = ObjectType.withFields(Counter.class, VALUE, COUNT);
+
+        public Counter() { super(TYPE); }
+        public Counter(ObjectPointer<Counter> p) { super(p); }
+
+        void value(long value) { setLongField(VALUE, value); }
+        void count(int count) { setIntField(COUNT, count); }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: examples.misc.SetterAllocationTest NUM_ITERATIONS");
+            System.exit(1);
+        }
+        int NUM_ITERATIONS = Integer.parseInt(args[0]);
+
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        Counter counter = new Counter();
+
+        // warm up so the JIT has compiled and escape-analyzed the paths being measured
+        for (int i = 0; i < 3; i++) {
+            nested(counter, NUM_ITERATIONS);
+            topLevel(counter, NUM_ITERATIONS / 10);
+        }
+
+        report("nested", 2 * NUM_ITERATIONS, () -> nested(counter, NUM_ITERATIONS));
+        report("top-level", NUM_ITERATIONS / 10, () -> topLevel(counter, NUM_ITERATIONS / 10));
+    }
+
+    static void nested(Counter counter, int n) {
+        Transaction.run(() -> {
+            for (int i = 0; i < n; i++) {
+                counter.value(i);
+                counter.count(i);
+            }
+        }, counter);
+    }
+
+    static void topLevel(Counter counter, int n) {
+        for (int i = 0; i < n; i++) counter.value(i);
+    }
+
+    static void report(String name, int n, Runnable body) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long startBytes = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        body.run();
+        long end = System.nanoTime();
+        long bytes = mx.getThreadAllocatedBytes(tid) - startBytes;
+        System.out.format("%-10s %,12d stores %10.1f ns/store %10.1f bytes/store\n", name, n, (double)(end - start) / n, (double)bytes / n);
+    }
+}
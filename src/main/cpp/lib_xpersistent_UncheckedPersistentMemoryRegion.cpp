@@ -77,3 +77,34 @@ JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nati
     //printf("Putting long into region at %lu at offset %lu, address %p, value %lu\n", region_offset, offset, src, value);
     //fflush(stdout);
 }
+
+JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nativePutLongDurable
+  (JNIEnv *env, jobject obj, jlong region_offset, jlong offset, jlong value, jint size)
+{
+    PMEMoid oid = {get_uuid_lo(), (uint64_t)region_offset};
+
+    void* dest = (void*)((uint64_t)pmemobj_direct(oid)+(uint64_t)offset);
+    pmemobj_memcpy_persist(pool, dest, &value, size);
+}
+
+JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nativePutBytesDurable
+  (JNIEnv *env, jobject obj, jlong region_offset, jlong offset, jbyteArray src_array, jint length)
+{
+    PMEMoid oid = {get_uuid_lo(), (uint64_t)region_offset};
+
+    void* dest = (void*)((uint64_t)pmemobj_direct(oid)+(uint64_t)offset);
+    jbyte* bytes = (jbyte*)env->GetPrimitiveArrayCritical(src_array, NULL);
+    pmemobj_memcpy_persist(pool, dest, bytes, (size_t)length);
+    env->ReleasePrimitiveArrayCritical(src_array, bytes, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nativeAddRange
+  (JNIEnv *env, jclass klass, jlong address, jint size)
+{
+    // must be called inside the thread's open transaction; the caller then stores directly
+    // and the range is flushed by pmemobj_tx_commit()
+    void* ptr = (void*)((uint64_t)pool+(uint64_t)address);
+    if (pmemobj_tx_add_range_direct(ptr, (size_t)size) != 0) {
+        throw_persistence_exception(env, "Failed to add range to transaction! ");
+    }
+}
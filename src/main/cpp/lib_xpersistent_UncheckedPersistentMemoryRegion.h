@@ -44,6 +44,30 @@ JNIEXPORT jlong JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nat
 JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nativePutLong
   (JNIEnv *, jobject, jlong, jlong, jlong, jint);
 
+/*
+ * Class:     lib_xpersistent_UncheckedPersistentMemoryRegion
+ * Method:    nativePutLongDurable
+ * Signature: (JJJI)V
+ */
+JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nativePutLongDurable
+  (JNIEnv *, jobject, jlong, jlong, jlong, jint);
+
+/*
+ * Class:     lib_xpersistent_UncheckedPersistentMemoryRegion
+ * Method:    nativePutBytesDurable
+ * Signature: (JJ[BI)V
+ */
+JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nativePutBytesDurable
+  (JNIEnv *, jobject, jlong, jlong, jbyteArray, jint);
+
+/*
+ * Class:     lib_xpersistent_UncheckedPersistentMemoryRegion
+ * Method:    nativeAddRange
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_lib_xpersistent_UncheckedPersistentMemoryRegion_nativeAddRange
+  (JNIEnv *, jclass, jlong, jint);
+
 #ifdef __cplusplus
 }
 #endif
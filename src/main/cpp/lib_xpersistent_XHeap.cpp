@@ -26,9 +26,11 @@
 JavaVM *jvm = NULL;
 
 JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeOpenHeap
-  (JNIEnv *env, jobject obj)
+  (JNIEnv *env, jobject obj, jstring path, jlong size)
 {
-    get_or_create_pool();
+    const char* cpath = env->GetStringUTFChars(path, NULL);
+    get_or_create_pool(cpath, (size_t)size);
+    env->ReleaseStringUTFChars(path, cpath);
     jint rs = env->GetJavaVM(&jvm);
     if (rs != JNI_OK) {
         printf("Failed to get JVM from env!\n");
@@ -112,7 +114,8 @@ JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeFromByteArrayMemcpy
     } TX_ONABORT {
         throw_persistence_exception(env, "Failed to memcpy! ");
     } TX_FINALLY {
-        if (is_copy) env->ReleaseByteArrayElements(src_array, bytes, 0);
+        // source is only read, never copy it back
+        if (is_copy) env->ReleaseByteArrayElements(src_array, bytes, JNI_ABORT);
     } TX_END
     // for (int i = 0; i < length; i++) {
     //     printf("wrote byte %d to offset %lu\n", *(char*)(dest+i), dest_offset+i);
@@ -141,3 +144,99 @@ JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeDebugPool
 
     return mr_count;
 }
+
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeGetPoolAddress
+  (JNIEnv *env, jobject obj)
+{
+    // pmemobj_direct() of an oid in this pool is the pool's mapped base address plus oid.off,
+    // so handing the base to Java once lets region reads skip pmemobj_direct() entirely
+    return (jlong)pool;
+}
+
+static const uint64_t SLOT_FREE = 0;
+static const uint64_t SLOT_IN_USE = 1;
+
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeAllocateChunk
+  (JNIEnv *env, jobject obj, jlong size, jlong slot_size)
+{
+    PMEMoid oid = OID_NULL;
+
+    TX_BEGIN(pool) {
+        oid = pmemobj_tx_zalloc((size_t)size, ARENA_CHUNK_TYPE_OFFSET);
+        uint64_t* header = (uint64_t*)pmemobj_direct(oid);
+        header[0] = (uint64_t)slot_size;
+        header[1] = (uint64_t)size;
+        pmemobj_persist(pool, header, 2 * sizeof(uint64_t));
+    } TX_ONABORT {
+        throw_persistence_exception(env, "Failed to allocate arena chunk! ");
+    } TX_END
+
+    return oid.off;
+}
+
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeNextChunk
+  (JNIEnv *env, jobject obj, jlong chunk_offset)
+{
+    PMEMoid oid;
+    if (chunk_offset == 0) {
+        oid = pmemobj_first(pool);
+    } else {
+        PMEMoid prev = {get_uuid_lo(), (uint64_t)chunk_offset};
+        oid = pmemobj_next(prev);
+    }
+    while (!OID_IS_NULL(oid) && pmemobj_type_num(oid) != ARENA_CHUNK_TYPE_OFFSET) {
+        oid = pmemobj_next(oid);
+    }
+    return OID_IS_NULL(oid) ? 0 : oid.off;
+}
+
+JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeClaimSlot
+  (JNIEnv *env, jobject obj, jlong slot_offset, jlong slot_size)
+{
+    uint64_t* slot = (uint64_t*)((uint64_t)pool + (uint64_t)slot_offset);
+
+    // the payload needs no undo log: if the claim rolls back the slot is simply free again
+    pmemobj_memset_persist(pool, slot + 1, 0, (size_t)slot_size - sizeof(uint64_t));
+    TX_BEGIN(pool) {
+        pmemobj_tx_add_range_direct(slot, sizeof(uint64_t));
+        *slot = SLOT_IN_USE;
+    } TX_ONABORT {
+        throw_persistence_exception(env, "Failed to claim arena slot! ");
+    } TX_END
+}
+
+JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeReleaseSlot
+  (JNIEnv *env, jobject obj, jlong slot_offset)
+{
+    uint64_t* slot = (uint64_t*)((uint64_t)pool + (uint64_t)slot_offset);
+
+    TX_BEGIN(pool) {
+        pmemobj_tx_add_range_direct(slot, sizeof(uint64_t));
+        *slot = SLOT_FREE;
+    } TX_ONABORT {
+        throw_persistence_exception(env, "Failed to release arena slot! ");
+    } TX_END
+}
+
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeNextRegion
+  (JNIEnv *env, jobject obj, jlong region_offset)
+{
+    PMEMoid oid;
+    if (region_offset == 0) {
+        oid = pmemobj_first(pool);
+    } else {
+        PMEMoid prev = {get_uuid_lo(), (uint64_t)region_offset};
+        oid = pmemobj_next(prev);
+    }
+    while (!OID_IS_NULL(oid) && pmemobj_type_num(oid) != TOID_TYPE_NUM(char)) {
+        oid = pmemobj_next(oid);
+    }
+    return OID_IS_NULL(oid) ? 0 : oid.off;
+}
+
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeUsableSize
+  (JNIEnv *env, jobject obj, jlong region_offset)
+{
+    PMEMoid oid = {get_uuid_lo(), (uint64_t)region_offset};
+    return (jlong)pmemobj_alloc_usable_size(oid);
+}
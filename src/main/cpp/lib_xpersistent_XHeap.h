@@ -31,10 +31,10 @@ extern "C" {
 /*
  * Class:     lib_xpersistent_XHeap
  * Method:    nativeOpenHeap
- * Signature: ()V
+ * Signature: (Ljava/lang/String;J)V
  */
 JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeOpenHeap
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jstring, jlong);
 
 /*
  * Class:     lib_xpersistent_XHeap
@@ -92,6 +92,62 @@ JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeFromByteArrayMemcpy
 JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeDebugPool
   (JNIEnv *, jobject, jboolean);
 
+/*
+ * Class:     lib_xpersistent_XHeap
+ * Method:    nativeGetPoolAddress
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeGetPoolAddress
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     lib_xpersistent_XHeap
+ * Method:    nativeAllocateChunk
+ * Signature: (JJ)J
+ */
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeAllocateChunk
+  (JNIEnv *, jobject, jlong, jlong);
+
+/*
+ * Class:     lib_xpersistent_XHeap
+ * Method:    nativeNextChunk
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeNextChunk
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     lib_xpersistent_XHeap
+ * Method:    nativeClaimSlot
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeClaimSlot
+  (JNIEnv *, jobject, jlong, jlong);
+
+/*
+ * Class:     lib_xpersistent_XHeap
+ * Method:    nativeReleaseSlot
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_lib_xpersistent_XHeap_nativeReleaseSlot
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     lib_xpersistent_XHeap
+ * Method:    nativeNextRegion
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeNextRegion
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     lib_xpersistent_XHeap
+ * Method:    nativeUsableSize
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_lib_xpersistent_XHeap_nativeUsableSize
+  (JNIEnv *, jobject, jlong);
+
 #ifdef __cplusplus
 }
 #endif
@@ -28,27 +28,15 @@ TOID(struct root_struct) root;
 
 static uint64_t uuid_lo;
 static int pool_refs = 0;
-static const size_t PM_POOL_SIZE = 2147483648U;  // 2G
-static const char PATH_DAX[50] = "/dev/dax0.0";
-static const char PATH_FILE[50] = "/mnt/mem/persistent_pool";
-
-PMEMobjpool* get_or_create_pool()
+// path may be a file, a device DAX node or a poolset file spanning several devices;
+// size is only used when creating a pool and must be 0 for devices and poolsets
+PMEMobjpool* get_or_create_pool(const char* path, size_t size)
 {
     pool_refs++;
     if (pool != NULL) {
         return pool;
     }
 
-    const char* path;
-    size_t size;
-    if (access(PATH_DAX, F_OK) != -1) {    // use DAX
-        path = PATH_DAX;
-        size = 0;
-    } else {
-        path = PATH_FILE;
-        size = PM_POOL_SIZE;
-    }
-
     pool = pmemobj_open(path, POBJ_LAYOUT_NAME(persistent_heap));
     if (pool == NULL) {
         pool = pmemobj_create(path, POBJ_LAYOUT_NAME(persistent_heap),
@@ -56,7 +44,7 @@ PMEMobjpool* get_or_create_pool()
     }
 
     if (pool == NULL) {
-        printf("Encountered error opening pool! Please check if %s or %s exists and accessible.\n", PATH_DAX, "/mnt/mem");
+        printf("Encountered error opening pool %s (%s)! Please check that it exists and is accessible.\n", path, pmemobj_errormsg());
         exit(-1);
     }
 
@@ -40,7 +40,7 @@ POBJ_LAYOUT_BEGIN(persistent_heap);
 POBJ_LAYOUT_ROOT(persistent_heap, struct root_struct);
 POBJ_LAYOUT_END(persistent_heap);
 
-PMEMobjpool* get_or_create_pool();
+PMEMobjpool* get_or_create_pool(const char* path, size_t size);
 void close_pool();
 TOID(struct root_struct) get_root();
 void create_root(uint64_t root_size);
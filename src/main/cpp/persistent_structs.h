@@ -32,6 +32,7 @@
 #define HASHMAP_TX_TYPE_OFFSET 1018
 #define BUCKETS_TYPE_OFFSET 1019
 #define ENTRY_TYPE_OFFSET 1020
+#define ARENA_CHUNK_TYPE_OFFSET 1021
 
 struct hashmap_tx;
 
@@ -42,21 +42,23 @@ import lib.util.persistent.types.PersistentField;
 import lib.util.persistent.spi.PersistentMemoryProvider;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.ArrayDeque;
-import java.lang.reflect.Constructor;
-import java.util.Iterator;
+import java.util.function.LongConsumer;
 import lib.xpersistent.XHeap;
 import lib.xpersistent.XRoot;
+import lib.xpersistent.XTransaction;
 import lib.xpersistent.UncheckedPersistentMemoryRegion;
 import java.util.Random;
 import static lib.util.persistent.Trace.*;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 import java.util.function.Consumer;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import sun.misc.Unsafe;
 
@@ -65,9 +67,22 @@ public abstract class AnyPersistent {
     protected static final PersistentHeap heap = PersistentMemoryProvider.getDefaultProvider().getHeap();
     protected static Random random = new Random(System.nanoTime());
     protected static Unsafe UNSAFE;
+    static final int INITIAL_VERSION = 99;
 
     protected final ObjectPointer<? extends AnyPersistent> pointer;
-    protected ReentrantLock lock;
+    // allocated on first lock; most materialized objects are only ever read
+    private volatile ObjectLock lock;
+    private static final AtomicReferenceFieldUpdater<AnyPersistent, ObjectLock> LOCK =
+        AtomicReferenceFieldUpdater.newUpdater(AnyPersistent.class, ObjectLock.class, "lock");
+    // stamp standing for "no lock allocated yet": nothing can have written this object through this
+    // instance until a lock exists, so a read is valid if there is still no lock afterwards
+    private static final long UNLOCKED_STAMP = -1L;
+    // frees the lists committed transactions leave queued, and retries those a drain gave way on
+    private static final ExecutorService freeRetries = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "AnyPersistent free");
+        t.setDaemon(true);
+        return t;
+    });
 
     static {
         try {
@@ -91,19 +106,30 @@ public abstract class AnyPersistent {
 
     <T extends AnyPersistent> AnyPersistent(ObjectType<T> type, MemoryRegion region) {
         // trace(true, region.addr(), "creating object of type %s", type.getName());
-        lock = new ReentrantLock(true);
-        Stats.current.memory.constructions++;
+        Stats.current.memory.constructions.increment();
         this.pointer = new ObjectPointer<T>(type, region);
         List<PersistentType> ts = type.getTypes();
         Transaction.run(() -> {
-            for (int i = 0; i < ts.size(); i++) initializeField(offset(i), ts.get(i));
+            // freshly allocated regions are already zeroed, so only the header needs writing
+            if (!Config.BULK_INITIALIZE_NEW_OBJECTS) {
+                for (int i = 0; i < ts.size(); i++) initializeField(offset(i), ts.get(i));
+            }
             if (!(type instanceof ValueBasedObjectType)) {
-                setTypeName(type.getName());
-                setVersion(99);
-                initForGC();
+                if (Config.BULK_INITIALIZE_NEW_OBJECTS) {
+                    initializeHeader(type);
+                    ObjectCache.registerObject(this);
+                }
+                else {
+                    setTypeId(type);
+                    setVersion(INITIAL_VERSION);
+                    initForGC();
+                }
                 if (heap instanceof XHeap && ((XHeap)heap).getDebugMode() == true) {
                     ((XRoot)(heap.getRoot())).addToAllObjects(getPointer().region().addr());
                 }
+                if (Config.ENABLE_HEAP_STATS && heap instanceof XHeap) {
+                    HeapStats.current.objectAllocated(type, ((XHeap)heap).regionSize(region));
+                }
                 ObjectCache.add(this);
             }
         }, this);
@@ -112,8 +138,7 @@ public abstract class AnyPersistent {
 
     protected AnyPersistent(ObjectPointer<? extends AnyPersistent> p) {
         // trace(true, p.region().addr(), "recreating object of type %s", p.type().getName());
-        lock = new ReentrantLock(true);
-        Stats.current.memory.reconstructions++;
+        Stats.current.memory.reconstructions.increment();
         this.pointer = p;
     }
 
@@ -126,34 +151,43 @@ public abstract class AnyPersistent {
         }, this);
     }
 
+    // for an instance just reconstructed by ObjectCache that no other thread can see yet; locking it
+    // would exclude nobody and only allocate its lock
+    void initUnpublishedForGC() {
+        MemoryRegion reg = getPointer().region();
+        Transaction.run(() -> {
+            int oldCount = reg.getInt(Header.TYPE.getOffset(Header.REF_COUNT));
+            reg.putInt(Header.TYPE.getOffset(Header.REF_COUNT), oldCount + 1);
+            ObjectCache.registerObject(this);
+        });
+    }
+
     // only called by Root during bootstrap of Object directory PersistentHashMap
     @SuppressWarnings("unchecked")
     public static <T extends AnyPersistent> T fromPointer(ObjectPointer<T> p) {
         // trace(p.addr(), "creating object from pointer of type %s", p.type().getName());
-        try {
-            Class<T> cls = p.type().cls();
-            Constructor ctor = cls.getDeclaredConstructor(ObjectPointer.class);
-            ctor.setAccessible(true);
-            T obj = (T)ctor.newInstance(p);
-            return obj;
-        }
-        catch (Exception e) {e.printStackTrace();}
-        return null;
+        return p.type().newInstance(p);
     }
 
     static void free(long addr) {
+        free(addr, true);
+    }
+
+    private static void free(long addr, boolean candidate) {
         // trace(addr, "free called");
-        ObjectCache.remove(addr);
         MemoryRegion reg = new UncheckedPersistentMemoryRegion(addr);
-        MemoryRegion nameRegion = new UncheckedPersistentMemoryRegion(reg.getLong(Header.TYPE.getOffset(Header.TYPE_NAME)));
         Transaction.run(() -> {
-            // trace(addr, "freeing object region %d and name region %d", reg.addr(), nameRegion.addr());
-            heap.freeRegion(nameRegion);
+            // trace(addr, "freeing object region %d", reg.addr());
+            if (Config.ENABLE_HEAP_STATS && heap instanceof XHeap) {
+                String typeName = TypeRegistry.get().nameFor(reg.getLong(Header.TYPE.getOffset(Header.TYPE_ID)));
+                HeapStats.current.objectFreed(typeName, ((XHeap)heap).regionSize(reg));
+            }
             heap.freeRegion(reg);
             if (heap instanceof XHeap && ((XHeap)heap).getDebugMode() == true) {
                 ((XRoot)(heap.getRoot())).removeFromAllObjects(addr);
             }
-            CycleCollector.removeFromCandidates(addr);
+            if (candidate) CycleCollector.removeFromCandidates(addr);
+            ObjectCache.freed(addr);
         });
     }
 
@@ -192,29 +226,69 @@ public abstract class AnyPersistent {
     abstract<T extends AnyPersistent> T getObject(long offset);
 
     void setByte(long offset, byte value) {
+        TransactionInfo info = XTransaction.tlInfo.get();
+        if (info.state == Transaction.State.Active) {
+            lockForTransaction(info);
+            pointer.region().putByte(offset, value);
+            return;
+        }
         Transaction.run(() -> {
             pointer.region().putByte(offset, value);
         }, this);
     }
 
     void setShort(long offset, short value) {
+        TransactionInfo info = XTransaction.tlInfo.get();
+        if (info.state == Transaction.State.Active) {
+            lockForTransaction(info);
+            pointer.region().putShort(offset, value);
+            return;
+        }
         Transaction.run(() -> {
             pointer.region().putShort(offset, value);
         }, this);
     }
 
     void setInt(long offset, int value) {
+        TransactionInfo info = XTransaction.tlInfo.get();
+        if (info.state == Transaction.State.Active) {
+            lockForTransaction(info);
+            pointer.region().putInt(offset, value);
+            return;
+        }
         Transaction.run(() -> {
             pointer.region().putInt(offset, value);
         }, this);
     }
 
     void setLong(long offset, long value) {
+        TransactionInfo info = XTransaction.tlInfo.get();
+        if (info.state == Transaction.State.Active) {
+            lockForTransaction(info);
+            pointer.region().putLong(offset, value);
+            return;
+        }
         Transaction.run(() -> {
             pointer.region().putLong(offset, value);
         }, this);
     }
 
+    // Fast path for single-field stores nested in an active transaction: rather than running a
+    // nested transaction (lambda, varargs array, XTransaction and lock list per store), take this
+    // object's lock for the rest of the enclosing transaction, unless this thread already holds it.
+    void lockForTransaction(TransactionInfo info) {
+        if (isHeldByCurrentThread()) return;
+        if (Config.BLOCK_ON_MAX_TRANSACTION_ATTEMPTS && info.attempts == Config.MAX_TRANSACTION_ATTEMPTS) monitorEnter();
+        else if (!monitorEnterTimeout()) throw new TransactionRetryException("failed to acquire lock (timeout)");
+        info.transaction.addLockedObject(this);
+    }
+
+    public boolean isHeldByCurrentThread() {
+        if (!Config.USE_SEPARATE_TRANSACTION_LOCKS) return Thread.holdsLock(this);
+        ObjectLock l = lock;
+        return l != null && l.isHeldByCurrentThread();
+    }
+
     void setObject(long offset, AnyPersistent value) {
         if (value != null && value.getPointer().type().isValueBased()) {
             MemoryRegion dstRegion = getPointer().region();
@@ -226,8 +300,15 @@ public abstract class AnyPersistent {
             Transaction.run(() -> {
                 AnyPersistent old = ObjectCache.get(getLong(offset), true);
                 Transaction.run(() -> {
-                    if (value != null) value.addReference();
-                    if (old != null) old.deleteReference();
+                    if (Config.DEFERRED_REFERENCE_COUNTING) {
+                        ReferenceDeltas deltas = XTransaction.tlInfo.get().referenceDeltas;
+                        if (value != null) deltas.increment(value);
+                        if (old != null) deltas.decrement(old);
+                    }
+                    else {
+                        if (value != null) value.addReference();
+                        if (old != null) old.deleteReference();
+                    }
                     setLong(offset, value == null ? 0 : value.getPointer().addr());
                 }, value, old);
             }, this);
@@ -329,15 +410,34 @@ public abstract class AnyPersistent {
         setIntField(Header.VERSION, version);
     }
 
-    protected void setTypeName(String name) {
+    // writes type id, version, a reference count of 1 and color BLACK in one store; the object
+    // is not yet reachable from committed data so the header needs no undo logging
+    private void initializeHeader(ObjectType<?> type) {
+        int typeId = TypeRegistry.get().idFor(type);
+        MemoryRegion reg = getPointer().region();
+        if (!(reg instanceof UncheckedPersistentMemoryRegion)) {
+            setLongField(Header.TYPE_ID, typeId);
+            setVersion(INITIAL_VERSION);
+            incRefCount();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate((int)Header.TYPE.getAllocationSize()).order(ByteOrder.nativeOrder());
+        header.putLong((int)Header.TYPE.getOffset(Header.TYPE_ID), typeId);
+        header.putInt((int)Header.TYPE.getOffset(Header.VERSION), INITIAL_VERSION);
+        header.putInt((int)Header.TYPE.getOffset(Header.REF_COUNT), 1);
+        header.put((int)Header.TYPE.getOffset(Header.REF_COLOR), CycleCollector.BLACK);
+        ((UncheckedPersistentMemoryRegion)reg).putDurableBytes(0, header.array());
+    }
+
+    protected void setTypeId(ObjectType<?> type) {
+        int typeId = TypeRegistry.get().idFor(type);
         Transaction.run(() -> {
-            RawString rs = new RawString(name);
-            setLongField(Header.TYPE_NAME, rs.getRegion().addr());
+            setLongField(Header.TYPE_ID, typeId);
         }, this);
     }
 
-    static String typeNameFromRegion(MemoryRegion region) {
-        return new RawString(region).toString();
+    static <T extends AnyPersistent> ObjectType<T> typeForRegion(MemoryRegion reg) {
+        return TypeRegistry.get().typeFor(reg.getLong(Header.TYPE.getOffset(Header.TYPE_ID)));
     }
 
      synchronized int getRefCount() {
@@ -346,20 +446,28 @@ public abstract class AnyPersistent {
     }
 
     void incRefCount() {
+        incRefCount(1);
+    }
+
+    void incRefCount(int n) {
         MemoryRegion reg = getPointer().region();
         Transaction.run(() -> {
             int oldCount = reg.getInt(Header.TYPE.getOffset(Header.REF_COUNT));
-            reg.putInt(Header.TYPE.getOffset(Header.REF_COUNT), oldCount + 1);
+            reg.putInt(Header.TYPE.getOffset(Header.REF_COUNT), oldCount + n);
             // trace(getPointer().addr(), "incRefCount(), type = %s, old = %d, new = %d",getPointer().type(), oldCount, getRefCount());
         }, this);
     }
 
     int decRefCount() {
+        return decRefCount(1);
+    }
+
+    int decRefCount(int n) {
         MemoryRegion reg = getPointer().region();
         Box<Integer> newCount = new Box<>();
         Transaction.run(() -> {
             int oldCount = reg.getInt(Header.TYPE.getOffset(Header.REF_COUNT));
-            newCount.set(oldCount - 1);
+            newCount.set(oldCount - n);
             // trace(getPointer().addr(), "decRefCount, type = %s, old = %d, new = %d", getPointer().type(), oldCount, newCount.get());
             if (newCount.get() < 0) {
                trace(true, reg.addr(), "decRef below 0");
@@ -370,51 +478,129 @@ public abstract class AnyPersistent {
     }
 
     void addReference() {
+        addReferences(1);
+    }
+
+    void addReferences(int n) {
         Transaction.run(() -> {
-            incRefCount();
+            incRefCount(n);
             setColor(CycleCollector.BLACK);
         }, this);
     }
 
-    synchronized void deleteReference() {
+    void deleteReference() {
+        deleteReferences(1);
+    }
+
+    // not synchronized: the body runs under this object's transaction lock, and taking the monitor as well
+    // would deadlock against a synchronized method that is waiting for that lock
+    void deleteReferences(int n) {
         assert(!getPointer().type().isValueBased());
-        Deque<Long> addrsToDelete = new ArrayDeque<>();
-        MemoryRegion reg = getPointer().region();
         Transaction.run(() -> {
-            int count = 0;
-            int newCount = decRefCount();
+            applyDeferredIncrements();
+            int newCount = decRefCount(n);
             if (newCount == 0) {
                 // trace(getPointer().addr(), "deleteReference, newCount == 0");
-                addrsToDelete.push(getPointer().addr());
-                while (!addrsToDelete.isEmpty()) {
-                    long addrToDelete = addrsToDelete.pop();
-                    Iterator<Long> childAddresses = getChildAddressIterator(addrToDelete);
-                    ArrayList<AnyPersistent> children = new ArrayList<>();
-                    while (childAddresses.hasNext()) {
-                        children.add(ObjectCache.get(childAddresses.next(), true));
-                    }
-                    // Transaction.run(() -> {
-                    // }, children.toArray(new AnyPersistent[0]));
-                    for (AnyPersistent child : children) {
-                        assert(!child.getPointer().type().isValueBased());
-                        Transaction.run(() -> {
-                            long childAddr = child.getPointer().addr();
-                            int crc = child.decRefCount();
-                            if (crc == 0) {
-                                addrsToDelete.push(childAddr);
-                            } else {
-                                CycleCollector.addCandidate(childAddr);
-                            }
-                        }, child);
-                    }
-                    free(addrToDelete);
-                }
+                TransactionInfo info = XTransaction.tlInfo.get();
+                queueFree(info, getPointer().addr());
+                freeQueued(info);
             } else {
                 CycleCollector.addCandidate(getPointer().addr());
             }
         }, this);
     }
 
+    // Objects whose counts reach zero are pushed on a list threaded through their headers, VERSION and
+    // REF_COUNT being meaningless once an object is dead. A transaction frees at most Config.FREE_CHUNK of
+    // them; XTransaction records what is left in the root before commit, and Transaction.run hands it to a
+    // shared thread that frees it in transactions of its own. Queued objects leave the candidate set, so no collector slice takes
+    // one up, and are coloured white so one that already has passes over it.
+    private static void queueFree(TransactionInfo info, long addr) {
+        MemoryRegion reg = new UncheckedPersistentMemoryRegion(addr);
+        reg.putLong(Header.TYPE.getOffset(Header.VERSION), info.unfreed);
+        reg.putByte(Header.TYPE.getOffset(Header.REF_COLOR), CycleCollector.WHITE);
+        CycleCollector.removeFromCandidates(addr);
+        info.unfreed = addr;
+    }
+
+    // children are looked up and locked one at a time as their parent is freed, never all at once
+    private static void freeQueued(TransactionInfo info) {
+        while (info.unfreed != 0 && info.freeCount < Config.FREE_CHUNK) {
+            long addr = info.unfreed;
+            info.unfreed = new UncheckedPersistentMemoryRegion(addr).getLong(Header.TYPE.getOffset(Header.VERSION));
+            forEachChildAddress(addr, childAddr -> {
+                AnyPersistent child = ObjectCache.get(childAddr, true);
+                assert(!child.getPointer().type().isValueBased());
+                Transaction.run(() -> {
+                    applyDeferredIncrements();      // reconstructing the child may have stored references
+                    if (child.decRefCount() == 0) queueFree(info, childAddr);
+                    else CycleCollector.addCandidate(childAddr);
+                }, child);
+            });
+            free(addr, false);
+            info.freeCount++;
+        }
+    }
+
+    // Called after a top-level transaction commits with objects still queued. The list is already recorded in
+    // the root, so the caller, who may hold monitors, neither waits for it to be freed nor sees it fail.
+    static void freeLater(TransactionInfo info) {
+        if (info.draining) return;      // the drain under way goes on with the rest
+        long head = info.unfreed;
+        info.unfreed = 0;
+        freeRetries.execute(() -> resumeFree(head));
+    }
+
+    // Frees a list recorded in the root, on the shared thread or on the one opening the heap. Like the
+    // collectors it waits on no lock without a timeout; a list whose locks it cannot get is given back.
+    static void drainFrees(TransactionInfo info) {
+        if (info.draining) return;
+        info.draining = true;
+        try {
+            while (info.unfreed != 0) {
+                long head = info.unfreed;
+                info.unfreed = 0;
+                try {
+                    Transaction.run(() -> {
+                        if (info.attempts > Config.FREE_CHUNK_ATTEMPTS) throw new GiveWay();
+                        info.highestLocked = Long.MAX_VALUE;
+                        ((XRoot)(heap.getRoot())).removePendingFrees(head);
+                        info.unfreed = head;
+                        freeQueued(info);
+                    });
+                }
+                catch (GiveWay e) {
+                    info.attempts = 1;
+                    giveBack(head);
+                }
+            }
+        }
+        finally {
+            info.draining = false;
+        }
+    }
+
+    // Retries given-back lists one at a time, after a pause for the contention to clear. A list that fails
+    // for any other reason than giving way stays in the root, to be freed when the heap is next opened.
+    private static void giveBack(long head) {
+        freeRetries.execute(() -> {
+            Util.sleep(Config.BASE_TRANSACTION_RETRY_DELAY);
+            resumeFree(head);
+        });
+    }
+
+    // a list recorded in the root: given back by a drain, or left by a transaction that committed before the heap closed
+    public static void resumeFree(long head) {
+        TransactionInfo info = XTransaction.tlInfo.get();
+        info.unfreed = head;
+        drainFrees(info);
+    }
+
+    // a count must not reach zero while the transaction still owes it an increment
+    static void applyDeferredIncrements() {
+        if (Config.DEFERRED_REFERENCE_COUNTING) XTransaction.tlInfo.get().referenceDeltas.applyIncrements();
+    }
+
     public static void deleteResidualReferences(long address, int count) {
         AnyPersistent obj = ObjectCache.get(address, true);
         assert(!obj.getPointer().type().isValueBased());
@@ -430,19 +616,12 @@ public abstract class AnyPersistent {
         }, obj);
     }
 
-    static String classNameForRegion(MemoryRegion reg) {
-        long typeNameAddr = reg.getLong(0);
-        MemoryRegion typeNameRegion = new UncheckedPersistentMemoryRegion(typeNameAddr);
-        return AnyPersistent.typeNameFromRegion(typeNameRegion);
-    }
-
-    static Iterator<Long> getChildAddressIterator(long address) {
-        trace(address, "getChildAddressIterator");
-        MemoryRegion reg = ObjectCache.get(address, true).getPointer().region();
-        String typeName = classNameForRegion(reg);
-        ObjectType<?> type = Types.typeForName(typeName);
+    // reads the region directly rather than through the object cache, so it can be called from any thread
+    static void forEachChildAddress(long address, LongConsumer action) {
+        trace(address, "forEachChildAddress");
+        MemoryRegion reg = new UncheckedPersistentMemoryRegion(address);
+        ObjectType<?> type = typeForRegion(reg);
 
-        ArrayList<Long> childAddresses = new ArrayList<>();
         if (type instanceof ArrayType) {
             ArrayType<?> arrType = (ArrayType)type;
             if (arrType.getElementType() == Types.OBJECT) {
@@ -451,27 +630,26 @@ public abstract class AnyPersistent {
                 for (int i = 0; i < length; i++) {
                     long childAddr = reg.getLong(arrType.getElementOffset(i));
                     if (childAddr != 0) {
-                        childAddresses.add(childAddr);
+                        action.accept(childAddr);
                     }
                 }
             }
         } else if (type instanceof ObjectType) {
             if (!((ObjectType)type).isValueBased()) {
+                List<PersistentType> types = type.getTypes();
                 for (int i = Header.TYPE.fieldCount(); i < type.fieldCount(); i++) {
-                    List<PersistentType> types = type.getTypes();
                     PersistentType ctype = types.get(i);
-                    if (ctype instanceof ObjectType && !((ObjectType)ctype).isValueBased() || types.get(i) == Types.OBJECT) {
+                    if (ctype instanceof ObjectType && !((ObjectType)ctype).isValueBased() || ctype == Types.OBJECT) {
                         long childAddr = reg.getLong(type.getOffset(i));
                         if (childAddr != 0) {
-                            childAddresses.add(childAddr);
+                            action.accept(childAddr);
                         }
                     }
                 }
             }
         } else {
-            throw new RuntimeException("getChildAddressIterator: unexpected type");
+            throw new RuntimeException("forEachChildAddress: unexpected type");
         }
-        return childAddresses.iterator();
     }
 
     void setColor(byte color) {
@@ -490,33 +668,6 @@ public abstract class AnyPersistent {
         return getPointer().region().getByte(Header.TYPE.getOffset(Header.REF_COLOR));
     }
 
-    public static boolean monitorEnter(List<AnyPersistent> toLock, List<AnyPersistent> locked, boolean block) {
-        trace("monitorEnter (lists), starting toLock = %d, locked = %d, block = %s", toLock.size(), locked.size(), block);
-        // toLock.sort((x, y) -> Long.compare(x.getPointer().addr(), y.getPointer().addr()));
-        boolean success = true;
-        for (AnyPersistent obj : toLock) {
-            if (!block) {
-                if (!obj.monitorEnterTimeout()) {
-                    success = false;
-                    // trace("TIMEOUT exceeded");
-                    for(AnyPersistent lockedObj : locked) {
-                        lockedObj.monitorExit();
-                        // trace("removed locked obj %d", obj.getPointer().addr());
-                    }
-                    locked.clear();
-                    break;
-                }
-                else {
-                    locked.add(obj);
-                    // trace("added locked obj %d", obj.getPointer().addr());
-                }
-            }
-            else obj.monitorEnter();
-        }
-        // trace("monitorEnter (lists), exiting toLock = %d, locked = %d", toLock.size(), locked.size());
-        return success;
-    }
-
     public boolean monitorEnterTimeout() {
         TransactionInfo info = lib.xpersistent.XTransaction.tlInfo.get();
         int max = info.timeout + random.nextInt(info.timeout);
@@ -526,14 +677,17 @@ public abstract class AnyPersistent {
         }
         else {
             info.timeout = Math.min((int)(info.timeout * Config.MONITOR_ENTER_TIMEOUT_INCREASE_FACTOR), Config.MAX_MONITOR_ENTER_TIMEOUT);
+            info.contended = this;
         }
         return success;
     }
 
     public void monitorEnter() {
         // trace(true, getPointer().addr(), "blocking monitorEnter for %s, attempt = %d", this.getPointer().addr(), lib.xpersistent.XTransaction.tlInfo.get().attempts);
-        if (Config.USE_SEPARATE_TRANSACTION_LOCKS) lock.lock();
+        long start = Stats.nanoTime();
+        if (Config.USE_SEPARATE_TRANSACTION_LOCKS) lock().lock();
         else UNSAFE.monitorEnter(this);
+        Stats.current.latencies.recordLockWait(this, start);
         // trace(true, getPointer().addr(), "blocking monitorEnter for %s exit", this.getPointer().addr());
     }
 
@@ -542,9 +696,14 @@ public abstract class AnyPersistent {
             monitorEnter();
             return true;
         }
+        long waitStart = Stats.nanoTime();
         if (Config.USE_SEPARATE_TRANSACTION_LOCKS) {
             try {
-                return lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+                boolean success = lock().tryLock(timeout, TimeUnit.MILLISECONDS);
+                Stats.current.latencies.recordLockWait(this, waitStart);
+                if (success) Stats.current.locks.acquired.increment();
+                else Stats.current.locks.timeouts.increment();
+                return success;
             }
             catch (InterruptedException ie) {throw new RuntimeException(ie.getMessage());}
         }
@@ -556,14 +715,70 @@ public abstract class AnyPersistent {
             success = UNSAFE.tryMonitorEnter(this);
             if (success) break;
             count++;
-            // Stats.current.locks.spinIterations++;
+            Stats.current.locks.spinIterations.increment();
             // if (count > 2000) try {count = 0; Thread.sleep(1);} catch (InterruptedException ie) {ie.printStackTrace();}
         } while (System.currentTimeMillis() - start < timeout);
-        // if (success) Stats.current.locks.acquired++;
-        // else Stats.current.locks.timeouts++;
+        Stats.current.latencies.recordLockWait(this, waitStart);
+        if (success) Stats.current.locks.acquired.increment();
+        else Stats.current.locks.timeouts.increment();
         return success;
     }
 
+    // true if some thread currently holds this object's transaction lock
+    boolean isLocked() {
+        if (Config.USE_SEPARATE_TRANSACTION_LOCKS) {
+            ObjectLock l = lock;
+            return l != null && l.isLocked();
+        }
+        if (UNSAFE.tryMonitorEnter(this)) {
+            UNSAFE.monitorExit(this);
+            return false;
+        }
+        return true;
+    }
+
+    // stamp for an unlocked read of this object's fields, 0 if one cannot be taken now or reads are not
+    // optimistic; only fields are covered, as header writes (counts, colours, free links) take no lock
+    long tryOptimisticRead() {
+        if (!Config.USE_OPTIMISTIC_READS) return 0;
+        ObjectLock l = lock;
+        return l == null ? UNLOCKED_STAMP : l.tryOptimisticRead();
+    }
+
+    // true if no transaction has locked this object since the stamp was taken
+    boolean validate(long stamp) {
+        if (stamp == UNLOCKED_STAMP) {
+            UNSAFE.loadFence();
+            return lock == null;
+        }
+        ObjectLock l = lock;
+        return l != null && l.validate(stamp);
+    }
+
+    private ObjectLock lock() {
+        ObjectLock l = lock;
+        if (l == null) {
+            l = ObjectLock.newLock();
+            if (!LOCK.compareAndSet(this, null, l)) l = lock;
+        }
+        return l;
+    }
+
+    // waits (queued on the lock) until this object's current holder releases it, without keeping it; a retry
+    // waiting, not a lock acquired, so unlike monitorEnterTimeout it records nothing in Stats
+    void awaitRelease(long timeout) {
+        if (Config.USE_SEPARATE_TRANSACTION_LOCKS) {
+            try {
+                ObjectLock l = lock();
+                if (l.tryLock(timeout, TimeUnit.MILLISECONDS)) l.unlock();
+            }
+            catch (InterruptedException ie) {throw new RuntimeException(ie.getMessage());}
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        while (isLocked() && System.currentTimeMillis() < deadline) Thread.yield();
+    }
+
     public void monitorExit() {
         if (Config.USE_SEPARATE_TRANSACTION_LOCKS) lock.unlock();
         else UNSAFE.monitorExit(this);
@@ -0,0 +1,228 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+// Concurrent map from non-zero long keys to values, without boxed keys or per-entry nodes. Keys are
+// striped over segments, each an open-addressing table (linear probing, backward-shift deletion) of
+// parallel long[] / Object[] arrays behind a StampedLock; lookups are optimistic and take the read
+// lock only if a writer intervened. Key 0 is reserved to mark empty slots: it cannot be put, and is
+// never found or removed.
+public final class ConcurrentLongMap<V> {
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 16;     // per segment, power of two
+
+    private final Segment[] segments;
+
+    public ConcurrentLongMap() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+    private static long mix(long key) {
+        long h = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 29);
+    }
+
+    private Segment segmentFor(long h) {
+        return segments[(int)(h >>> 58) & (SEGMENTS - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long h = mix(key);
+        return (V)segmentFor(h).get(key, (int)h);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == 0) throw new IllegalArgumentException("key 0 is reserved");
+        if (value == null) throw new NullPointerException();
+        long h = mix(key);
+        return (V)segmentFor(h).put(key, (int)h, value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long key, V value) {
+        if (key == 0) throw new IllegalArgumentException("key 0 is reserved");
+        if (value == null) throw new NullPointerException();
+        long h = mix(key);
+        return (V)segmentFor(h).put(key, (int)h, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        long h = mix(key);
+        return (V)segmentFor(h).remove(key, (int)h, null);
+    }
+
+    // removes the entry only if it maps to value (identity)
+    public boolean remove(long key, V value) {
+        long h = mix(key);
+        return segmentFor(h).remove(key, (int)h, value) != null;
+    }
+
+    public int size() {
+        int ans = 0;
+        for (Segment s : segments) ans += s.size;
+        return ans;
+    }
+
+    public void clear() {
+        for (Segment s : segments) s.clear();
+    }
+
+    // visits the values segment by segment; entries added or removed meanwhile may or may not be seen
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (Segment s : segments) s.forEachValue((Consumer<Object>)action);
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private volatile int size;
+
+        Object get(long key, int h) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                long[] ks = keys;
+                Object[] vs = values;
+                Object ans = ks.length == vs.length ? find(ks, vs, key, h) : null;
+                if (lock.validate(stamp)) return ans;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(keys, values, key, h);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        // bounded by the table length so a torn optimistic read cannot spin
+        private static Object find(long[] ks, Object[] vs, long key, int h) {
+            int mask = ks.length - 1;
+            for (int i = h & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+                long k = ks[i];
+                if (k == key) return vs[i];
+                if (k == 0) return null;
+            }
+            return null;
+        }
+
+        Object put(long key, int h, Object value, boolean onlyIfAbsent) {
+            long stamp = lock.writeLock();
+            try {
+                int mask = keys.length - 1;
+                int i = h & mask;
+                for (long k; (k = keys[i]) != 0; i = (i + 1) & mask) {
+                    if (k == key) {
+                        Object old = values[i];
+                        if (!onlyIfAbsent) values[i] = value;
+                        return old;
+                    }
+                }
+                keys[i] = key;
+                values[i] = value;
+                if (++size > (keys.length >> 2) * 3) resize(keys.length << 1);
+                return null;
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        Object remove(long key, int h, Object expected) {
+            if (key == 0) return null;      // would match the first empty slot of the probe run
+            long stamp = lock.writeLock();
+            try {
+                int mask = keys.length - 1;
+                int i = h & mask;
+                for (long k; (k = keys[i]) != key; i = (i + 1) & mask) {
+                    if (k == 0) return null;
+                }
+                Object old = values[i];
+                if (expected != null && old != expected) return null;
+                // backward-shift deletion: pull later entries of the probe run into the hole
+                for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                    int home = (int)mix(keys[j]) & mask;
+                    if (((j - home) & mask) >= ((j - i) & mask)) {
+                        keys[i] = keys[j];
+                        values[i] = values[j];
+                        i = j;
+                    }
+                }
+                keys[i] = 0;
+                values[i] = null;
+                size--;
+                return old;
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] ks = new long[capacity];
+            Object[] vs = new Object[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < keys.length; j++) {
+                long k = keys[j];
+                if (k == 0) continue;
+                int i = (int)mix(k) & mask;
+                while (ks[i] != 0) i = (i + 1) & mask;
+                ks[i] = k;
+                vs[i] = values[j];
+            }
+            keys = ks;
+            values = vs;
+        }
+
+        void forEachValue(Consumer<Object> action) {
+            Object[] vs;
+            long stamp = lock.readLock();
+            try {
+                vs = values.clone();
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+            for (Object v : vs) if (v != null) action.accept(v);
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                keys = new long[INITIAL_CAPACITY];
+                values = new Object[INITIAL_CAPACITY];
+                size = 0;
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+}
@@ -32,6 +32,16 @@ public class Config {
     public static final int BASE_TRANSACTION_RETRY_DELAY = 200; //ms
     public static final int MAX_TRANSACTION_RETRY_DELAY = 5000; //ms
     public static final float TRANSACTION_RETRY_DELAY_INCREASE_FACTOR = 1.5f; 
+    public static final int RETRY_SPIN_ITERATIONS = 1000;
+    public static final int MAX_RETRY_WAIT_TIME = 250; //ms, bound for SPIN and PARK retry waits
+
+    private static volatile RetryPolicy retryPolicy = RetryPolicy.fromProperty("pcj.retryPolicy", RetryPolicy.PARK);
+
+    public static RetryPolicy getRetryPolicy() {return retryPolicy;}
+    public static void setRetryPolicy(RetryPolicy policy) {
+        if (policy == null) throw new NullPointerException();
+        retryPolicy = policy;
+    }
 
     public static final boolean EXIT_ON_TRANSACTION_FAILURE = false;
     public static final boolean BLOCK_ON_MAX_TRANSACTION_ATTEMPTS = true;
@@ -39,4 +49,48 @@ public class Config {
     public static final boolean USE_BLOCKING_LOCKS_FOR_DEBUG = false;
 
     public static final boolean USE_SEPARATE_TRANSACTION_LOCKS = true;
-}
\ No newline at end of file
+
+    // StampedLock-based object locks; non-transactional reads are optimistic and validated
+    public static final boolean USE_OPTIMISTIC_READS = USE_SEPARATE_TRANSACTION_LOCKS && Boolean.getBoolean("pcj.optimisticReads");
+
+    public static final boolean USE_DIRECT_REGION_READS = true;
+
+    public static final boolean BULK_INITIALIZE_NEW_OBJECTS = true;
+
+    // small regions come from per-thread slabs instead of one pmemobj allocation each
+    public static final boolean USE_ALLOCATION_ARENAS = true;
+
+    // 0 leaves ObjectCache size to the GC (SoftReferences); otherwise the cache holds at most this many
+    // objects strongly, evicting by CLOCK, and keeps others only while the application can reach them
+    public static final int OBJECT_CACHE_CAPACITY = Integer.getInteger("pcj.objectCache.capacity", 0);
+    // threads releasing the reference counts of collected instances, each one transaction per batch
+    public static final int OBJECT_CACHE_COLLECTOR_THREADS = Integer.getInteger("pcj.objectCache.collectorThreads", 1);
+    public static final int OBJECT_CACHE_COLLECTOR_BATCH = Integer.getInteger("pcj.objectCache.collectorBatch", 64);
+    public static final int OBJECT_CACHE_COLLECTOR_BATCH_ATTEMPTS = 4;
+
+    // cycle collection runs continuously on a background thread, in bounded slices, instead of as one
+    // pass over every candidate while the heap is opened
+    public static final boolean ENABLE_BACKGROUND_CYCLE_COLLECTION = Boolean.getBoolean("pcj.backgroundCycleCollection");
+    public static final int CYCLE_COLLECTION_SLICE_CANDIDATES = 256;
+    public static final int CYCLE_COLLECTION_SLICE_TIME = 10; // ms of marking, after which a slice takes no more candidates
+    public static final int CYCLE_COLLECTION_SLICE_ATTEMPTS = 4;
+    public static final int CYCLE_COLLECTION_SLICE_OBJECTS = 65536;     // locked by a slice, after which it takes no more candidates
+    public static final int CYCLE_COLLECTION_MAX_SLICE_TIME = 1000; // ms of locking the first candidate's graph before the slice gives way
+    public static final int CYCLE_COLLECTION_CANDIDATE_FAILURES = 4;    // slices a candidate may fail alone before it is left for the next open
+    public static final int CYCLE_COLLECTION_IDLE_WAIT = 100; // ms
+    // worker threads marking and scanning in the full pass at heap open
+    public static final int CYCLE_COLLECTION_THREADS = Integer.getInteger("pcj.cycleCollection.threads", Runtime.getRuntime().availableProcessors());
+
+    // setObject logs reference count changes and the transaction applies their net per object before it
+    // commits, so a field overwritten several times costs one header update per object it pointed to
+    public static final boolean DEFERRED_REFERENCE_COUNTING = Boolean.getBoolean("pcj.deferredRefCounting");
+
+    // most objects a transaction frees when counts it drops reach zero; the rest are queued persistently and
+    // freed after it commits, in transactions of this many each
+    public static final int FREE_CHUNK = Integer.getInteger("pcj.freeChunk", 1024);
+    public static final int FREE_CHUNK_ATTEMPTS = 4;
+
+    // region and per-type occupancy counters behind XHeap.getHeapStats(); off by default, as opening the heap
+    // then walks every region to seed them and each allocation and free pays for counting
+    public static final boolean ENABLE_HEAP_STATS = Boolean.getBoolean("pcj.heapStats");
+}
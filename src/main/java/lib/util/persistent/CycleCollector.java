@@ -24,14 +24,16 @@ package lib.util.persistent;
 import lib.util.persistent.spi.PersistentMemoryProvider;
 import lib.xpersistent.XRoot;
 import lib.xpersistent.XHeap;
+import lib.xpersistent.XTransaction;
 import lib.xpersistent.PersistentConcurrentHashMapInternal;
+import lib.xpersistent.UncheckedPersistentMemoryRegion;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.Deque;
-import java.util.ArrayDeque;
+import java.util.function.LongPredicate;
 
 public class CycleCollector {
 
@@ -42,12 +44,23 @@ public class CycleCollector {
 
     // static HashSet<Long> candidatesSet = new HashSet<>();
     static PersistentConcurrentHashMapInternal candidatesSet;
-    static HashSet<Long> freedCandidates = new HashSet<>();
     static XHeap heap;
     static XRoot root;
     static AtomicBoolean processing = new AtomicBoolean();
     static HashMap<Long, Byte> colorChangesWhileCollecting = new HashMap<>();
 
+    // Background collection (Config.ENABLE_BACKGROUND_CYCLE_COLLECTION) replaces the full pass at heap open.
+    // A daemon thread collects candidates in slices of at most CYCLE_COLLECTION_SLICE_CANDIDATES, taking
+    // no more once CYCLE_COLLECTION_SLICE_TIME has been spent marking. A slice is one top-level transaction
+    // that locks every object it visits, so mutators are serialized against it rather than stopped.
+    // The persistent candidate set stays authoritative; pending only says which addresses to look at.
+    // Candidates in a slice that failed are retried one per slice as suspects, and one that fails alone
+    // CYCLE_COLLECTION_CANDIDATE_FAILURES times is dropped, staying in the heap's set until it is next opened.
+    private static final LongQueue pending = new LongQueue();
+    private static final LongQueue suspects = new LongQueue();
+    private static final HashMap<Long, Integer> failures = new HashMap<>();     // collector thread only
+    private static Thread background;
+
     // public static synchronized HashSet<Long> getCandidates() { return candidatesSet; }
 
     public static synchronized void collect() {
@@ -55,16 +68,22 @@ public class CycleCollector {
         root = ((XRoot)(heap.getRoot()));
         processing.set(true);
         candidatesSet = root.getCandidates();
-        markCandidates();
+        LongStack roots = new LongStack();
         PersistentConcurrentHashMapInternal.EntryIterator iter = candidatesSet.iter();
         while (iter.hasNext()) {
-            PersistentConcurrentHashMapInternal.NodeLL node = iter.next();
-            Deque<Long> stack = new ArrayDeque<>();
-            stack.push(node.getKey());
-            scan(stack);
+            long l = iter.next().getKey();
+            MemoryRegion reg = new UncheckedPersistentMemoryRegion(l);
+            byte color = reg.getByte(Header.TYPE.getOffset(Header.REF_COLOR));
+            if (color == PURPLE) {
+                roots.push(l);
+            } else if (color == BLACK && reg.getInt(Header.TYPE.getOffset(Header.REF_COUNT)) == 0) {
+                AnyPersistent.free(l);
+                root.removeFromAllObjects(l);
+            }
         }
-        collectCandidates();
-        // root.clearCandidates();
+        long[] rootAddrs = new long[roots.size()];
+        for (int i = rootAddrs.length - 1; i >= 0; i--) rootAddrs[i] = roots.pop();
+        ParallelTrialDeletion.collect(rootAddrs, root, Config.CYCLE_COLLECTION_THREADS);
         candidatesSet.delete();
         processing.set(false);
         synchronized(colorChangesWhileCollecting) {
@@ -76,112 +95,234 @@ public class CycleCollector {
         }
     }
 
-    private static void markCandidates() {
-        PersistentConcurrentHashMapInternal.EntryIterator iter = candidatesSet.iter();
-        while (iter.hasNext()) {
-            PersistentConcurrentHashMapInternal.NodeLL node = iter.next();
-            Long l = node.getKey();
-            AnyPersistent obj = ObjectCache.get(l, true);
-            if (obj.getColor() == PURPLE) {
-                Deque<Long> stack = new ArrayDeque<>();
-                stack.push(l);
-                markGrey(stack);
-            } else {
-                iter.remove();
-                if (obj.getColor() == BLACK && obj.getRefCount() == 0) {
-                    AnyPersistent.free(l);
-                    root.removeFromAllObjects(l);
-                }
-            }
-        }
-    }
+    // The sequential walks below are used by background slices, which run in a transaction that locks
+    // each object as it is visited and so change colours and counts in the heap directly.
 
-    private static void markGrey(Deque<Long> stack) {
+    private static void markGrey(long addr) {
+        LongStack stack = new LongStack();
+        stack.push(addr);
         while (!stack.isEmpty()) {
-            Long l = stack.pop();
+            long l = stack.pop();
             AnyPersistent obj = ObjectCache.get(l, true);
             if (obj.getColor() != GREY) {
-                Iterator<Long> childAddresses = AnyPersistent.getChildAddressIterator(l);
-                while (childAddresses.hasNext()) {
-                    long childAddr = childAddresses.next();
-                    // System.out.println("processing child addr " + childAddr);
+                AnyPersistent.forEachChildAddress(l, childAddr -> {
                     ObjectCache.get(childAddr, true).decRefCount();
                     stack.push(childAddr);
-                }
+                });
                 obj.setColor(GREY, true);
             }
         }
     }
 
-    private static void scan(Deque<Long> stack) {
+    private static void scan(long addr) {
+        LongStack stack = new LongStack();
+        stack.push(addr);
         while (!stack.isEmpty()) {
-            Long l = stack.pop();
+            long l = stack.pop();
             AnyPersistent obj = ObjectCache.get(l, true);
             if (obj.getColor() == GREY) {
-                if (obj.getRefCount() > 0) {
-                    Deque<Long> scanBlackStack = new ArrayDeque<>();
-                    scanBlackStack.push(l);
-                    scanBlack(scanBlackStack);
+                if (refCount(obj) > 0) {
+                    scanBlack(l);
                 } else {
-                    Iterator<Long> childAddresses = AnyPersistent.getChildAddressIterator(l);
-                    while (childAddresses.hasNext()) {
-                        long childAddr = childAddresses.next();
-                        stack.push(childAddr);
-                    }
+                    AnyPersistent.forEachChildAddress(l, stack::push);
                     obj.setColor(WHITE, true);
                 }
             }
         }
     }
 
-    private static void scanBlack(Deque<Long> stack) {
+    private static void scanBlack(long addr) {
+        LongStack stack = new LongStack();
+        stack.push(addr);
         while (!stack.isEmpty()) {
-            Long l = stack.pop();
-            ObjectCache.get(l, true).setColor(BLACK, true);
-            Iterator<Long> childAddresses = AnyPersistent.getChildAddressIterator(l);
-            while (childAddresses.hasNext()) {
-                long childAddr = childAddresses.next();
+            long l = stack.pop();
+            AnyPersistent obj = ObjectCache.get(l, true);
+            if (obj.getColor() == BLACK) continue;     // pushed by two parents; its references are already restored
+            obj.setColor(BLACK, true);
+            AnyPersistent.forEachChildAddress(l, childAddr -> {
                 AnyPersistent child = ObjectCache.get(childAddr, true);
                 child.incRefCount();
                 if (child.getColor() != BLACK) {
                     stack.push(childAddr);
                 }
-            }
-        }
-    }
-
-    private static void collectCandidates() {
-        PersistentConcurrentHashMapInternal.EntryIterator iter = candidatesSet.iter();
-        while (iter.hasNext()) {
-            PersistentConcurrentHashMapInternal.NodeLL node = iter.next();
-            Long l = node.getKey();
-            iter.remove();
-            Deque<Long> stack = new ArrayDeque<>();
-            stack.push(l);
-            collectWhite(stack);
+            });
         }
     }
 
-    private static void collectWhite(Deque<Long> stack) {
+    // white objects that are still to be collected as candidates themselves are left for their own pass
+    private static void collectWhite(long addr, Set<Long> freed, LongPredicate isCandidate) {
+        LongStack stack = new LongStack();
+        stack.push(addr);
         while (!stack.isEmpty()) {
-            Long l = stack.pop();
-            if (!freedCandidates.contains(l)) {
+            long l = stack.pop();
+            if (!freed.contains(l)) {
                 AnyPersistent obj = ObjectCache.get(l, true);
-                if (obj.getColor() == WHITE && !candidatesSet.containsKey(l)) {
+                if (obj.getColor() == WHITE && !isCandidate.test(l)) {
                     obj.setColor(BLACK, true);
-                    Iterator<Long> childAddresses = AnyPersistent.getChildAddressIterator(l);
-                    while (childAddresses.hasNext()) {
-                        long childAddr = childAddresses.next();
-                        stack.push(childAddr);
-                    }
+                    AnyPersistent.forEachChildAddress(l, stack::push);
                     PersistentObject.free(l);
-                    freedCandidates.add(l);
+                    freed.add(l);
                     root.removeFromAllObjects(l);
                 }
             }
         }
     }
 
+    // Seeds the background collector with the candidates left in the heap and starts its thread.
+    // Called while the heap is being opened, before other threads can change the candidate set.
+    public static synchronized void startBackground() {
+        heap = ((XHeap)(PersistentMemoryProvider.getDefaultProvider().getHeap()));
+        root = ((XRoot)(heap.getRoot()));
+        root.forEachCandidate(pending::add);
+        if (background != null) return;
+        background = new Thread(() -> {
+            long backoff = Config.CYCLE_COLLECTION_IDLE_WAIT;   // doubled by each failed slice in a row
+            while (true) {
+                try {
+                    if (!collectSlice()) Thread.sleep(Config.CYCLE_COLLECTION_IDLE_WAIT);
+                    backoff = Config.CYCLE_COLLECTION_IDLE_WAIT;
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                catch (Throwable e) {
+                    System.err.println("CycleCollector: slice failed: " + e);
+                    try {
+                        Thread.sleep(backoff);
+                    }
+                    catch (InterruptedException ie) {
+                        return;
+                    }
+                    backoff = Math.min(2 * backoff, Config.MAX_TRANSACTION_RETRY_DELAY);
+                }
+            }
+        }, "CycleCollector");
+        background.setDaemon(true);
+        background.start();
+    }
+
+    // Collects one slice of pending candidates, or of one suspect; false if there were none, or if the
+    // slice gave way to mutators. Candidates the slice did not get to go back on the queue they came from;
+    // if its transaction failed, all of them are suspects.
+    static boolean collectSlice() {
+        boolean suspect = !suspects.isEmpty();
+        long[] batch = suspect ? suspects.poll(1) : pending.poll(Config.CYCLE_COLLECTION_SLICE_CANDIDATES);
+        if (batch.length == 0) return false;
+        TransactionInfo info = XTransaction.tlInfo.get();
+        Box<Integer> taken = new Box<>(0);
+        Box<Boolean> oversized = new Box<>(false);
+        try {
+            Transaction.run(() -> {
+                // the last attempt blocks on every lock and could deadlock with a mutator on its own last
+                // attempt, so a slice stops retrying well before it
+                if (info.attempts > Config.CYCLE_COLLECTION_SLICE_ATTEMPTS) throw new GiveWay();
+                // nor does it wait on any lock without a timeout: a mutator reading outside a transaction
+                // holds an object's lock while it looks up the referent, so address order cannot rule out a cycle
+                info.highestLocked = Long.MAX_VALUE;
+                long start = System.nanoTime();
+                long deadline = start + Config.CYCLE_COLLECTION_SLICE_TIME * 1_000_000L;
+                ArrayList<Long> roots = new ArrayList<>();
+                ArrayList<Long> purple = new ArrayList<>();
+                Set<Long> locked = new HashSet<>();
+                int i = 0;
+                for (; i < batch.length && (i == 0 || System.nanoTime() < deadline); i++) {
+                    long addr = batch[i];
+                    if (!root.takeCandidate(addr)) continue;    // freed or collected since it was queued
+                    AnyPersistent obj = ObjectCache.get(addr, true);
+                    Transaction.run(() -> {}, obj);
+                    if (obj.getColor() == PURPLE) {
+                        // the walks below only visit what is locked here, so this bounds the whole slice
+                        long limit = i == 0 ? start + Config.CYCLE_COLLECTION_MAX_SLICE_TIME * 1_000_000L : deadline;
+                        if (!lockGraph(addr, locked, limit)) {
+                            if (i == 0) {
+                                oversized.set(true);
+                                throw new GiveWay();
+                            }
+                            root.addToCandidates(addr);     // left for a later slice, with those after it
+                            break;
+                        }
+                        purple.add(addr);
+                        continue;
+                    }
+                    AnyPersistent.applyDeferredIncrements();
+                    if (obj.getColor() == BLACK && refCount(obj) == 0) {
+                        AnyPersistent.free(addr);
+                    }
+                }
+                taken.set(i);
+                // trial deletion starts only once everything it will visit has been reconstructed, and the
+                // counts it reads include any reference changes reconstruction deferred
+                if (!info.referenceDeltas.isEmpty()) info.referenceDeltas.apply();
+                for (long addr : purple) {
+                    if (freedBy(info, addr) || ObjectCache.get(addr, true).getColor() != PURPLE) continue;
+                    markGrey(addr);
+                    roots.add(addr);
+                }
+                for (long addr : roots) scan(addr);
+                Set<Long> uncollected = new HashSet<>(roots);
+                Set<Long> freed = new HashSet<>();
+                for (long addr : roots) {
+                    uncollected.remove(addr);
+                    collectWhite(addr, freed, uncollected::contains);
+                }
+            });
+        }
+        catch (GiveWay e) {
+            info.attempts = 1;
+            if (oversized.get()) {
+                failed(batch[0]);
+                pending.addAll(batch, 1);
+            }
+            else (suspect ? suspects : pending).addAll(batch, 0);
+            return false;
+        }
+        catch (RuntimeException | Error e) {
+            if (suspect) failed(batch[0]);
+            else suspects.addAll(batch, 0);
+            throw e;
+        }
+        (suspect ? suspects : pending).addAll(batch, taken.get());
+        if (suspect) failures.remove(batch[0]);
+        return true;
+    }
+
+    private static void failed(long addr) {
+        int n = failures.merge(addr, 1, Integer::sum);
+        if (n < Config.CYCLE_COLLECTION_CANDIDATE_FAILURES) suspects.add(addr);
+        else {
+            failures.remove(addr);
+            System.err.format("CycleCollector: dropped candidate 0x%x after %d failed slices\n", addr, n);
+        }
+    }
+
+    // Reconstructs and locks everything reachable from a candidate before trial deletion starts:
+    // reconstruction may write to the graph (PersistentFPTree2 unlinks empty leaves), which in the
+    // middle of marking would change counts the trial has already adjusted. False if the slice would
+    // then hold more than CYCLE_COLLECTION_SLICE_OBJECTS locks, or if the walk runs past limit.
+    private static boolean lockGraph(long addr, Set<Long> locked, long limit) {
+        LongStack stack = new LongStack();
+        stack.push(addr);
+        while (!stack.isEmpty()) {
+            long l = stack.pop();
+            if (!locked.add(l)) continue;
+            if (locked.size() > Config.CYCLE_COLLECTION_SLICE_OBJECTS || System.nanoTime() > limit) return false;
+            Transaction.run(() -> {}, ObjectCache.get(l, true));
+            AnyPersistent.forEachChildAddress(l, stack::push);
+        }
+        return true;
+    }
+
+    // a candidate can be freed by its own slice, when reconstructing another object drops its last reference
+    private static boolean freedBy(TransactionInfo info, long addr) {
+        for (AnyPersistent obj : info.freed) if (obj.getPointer().addr() == addr) return true;
+        return false;
+    }
+
+    // trial deletion holds the object's transaction lock; its monitor may be held by a mutator waiting on that lock
+    private static int refCount(AnyPersistent obj) {
+        return obj.getPointer().region().getInt(Header.TYPE.getOffset(Header.REF_COUNT));
+    }
+
     static void addCandidate(long addr) {
         Transaction.run(() -> {
             AnyPersistent obj = ObjectCache.get(addr, true);
@@ -192,6 +333,7 @@ public class CycleCollector {
                     obj.setColor(PURPLE);
                 }
                 ((XRoot)(PersistentMemoryProvider.getDefaultProvider().getHeap().getRoot())).addToCandidates(addr);
+                if (Config.ENABLE_BACKGROUND_CYCLE_COLLECTION) pending.add(addr);
             }
         });
     }
@@ -210,4 +352,39 @@ public class CycleCollector {
     static synchronized boolean isCandidate(long addr) {
         return candidatesSet.containsKey(addr);
     }
+
+    // FIFO of candidate addresses for the background collector; duplicates are harmless
+    private static final class LongQueue {
+        private long[] elements = new long[1024];
+        private int head;
+        private int size;
+
+        synchronized void add(long addr) {
+            if (size == elements.length) {
+                long[] grown = new long[size * 2];
+                for (int i = 0; i < size; i++) grown[i] = elements[(head + i) % size];
+                elements = grown;
+                head = 0;
+            }
+            elements[(head + size++) % elements.length] = addr;
+        }
+
+        synchronized void addAll(long[] addrs, int from) {
+            for (int i = from; i < addrs.length; i++) add(addrs[i]);
+        }
+
+        synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        synchronized long[] poll(int max) {
+            long[] ans = new long[Math.min(max, size)];
+            for (int i = 0; i < ans.length; i++) {
+                ans[i] = elements[head];
+                head = (head + 1) % elements.length;
+                size--;
+            }
+            return ans;
+        }
+    }
 }
@@ -0,0 +1,275 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import lib.util.persistent.types.ObjectType;
+
+// Heap occupancy maintained incrementally as regions and objects are allocated and freed, so it can be
+// polled in production: a Snapshot costs O(size classes + types) and never walks the heap.
+//
+// Region counts cover the whole pool; they are seeded when the heap opens from the backend's own
+// walk (the same one recovery does) and then kept current. Per-type counts are activity since the heap
+// was opened, allocations and frees reported separately: the walk cannot tell object regions from others,
+// so objects already in the pool are not counted by type, and their frees make a type's net count negative.
+// Enabled by -Dpcj.heapStats=true.
+// Changes made by a transaction are applied when it commits and dropped if it aborts.
+public final class HeapStats {
+    public static final HeapStats current = new HeapStats();
+
+    static final int SIZE_CLASSES = 41;     // class c holds regions of (2^(c-1), 2^c] bytes
+
+    private final LongAdder[] classCounts = new LongAdder[SIZE_CLASSES];
+    private final LongAdder[] classBytes = new LongAdder[SIZE_CLASSES];
+    private final ConcurrentHashMap<String, TypeCounts> types = new ConcurrentHashMap<>();
+
+    private static final class TypeCounts {
+        final LongAdder allocated = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder freed = new LongAdder();
+        final LongAdder freedBytes = new LongAdder();
+    }
+
+    private HeapStats() {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            classCounts[i] = new LongAdder();
+            classBytes[i] = new LongAdder();
+        }
+    }
+
+    static int sizeClass(long size) {
+        return Math.min(SIZE_CLASSES - 1, size <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(size - 1));
+    }
+
+    // a region that already exists when the heap is opened
+    public void existingRegion(long size) {
+        region(size, 1);
+    }
+
+    public void clearRegions() {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            classCounts[i].reset();
+            classBytes[i].reset();
+        }
+    }
+
+    public void regionAllocated(long size) {
+        Pending p = pending();
+        if (p == null) region(size, 1);
+        else p.add(null, size);
+    }
+
+    public void regionFreed(long size) {
+        Pending p = pending();
+        if (p == null) region(size, -1);
+        else p.add(null, -size);
+    }
+
+    void objectAllocated(ObjectType<?> type, long size) {
+        Pending p = pending();
+        if (p == null) object(type.getName(), size, 1);
+        else p.add(type.getName(), size);
+    }
+
+    void objectFreed(String typeName, long size) {
+        Pending p = pending();
+        if (p == null) object(typeName, size, -1);
+        else p.add(typeName, -size);
+    }
+
+    private void region(long size, int sign) {
+        int c = sizeClass(size);
+        classCounts[c].add(sign);
+        classBytes[c].add(sign * size);
+    }
+
+    private void object(String typeName, long size, int sign) {
+        TypeCounts t = types.computeIfAbsent(typeName, k -> new TypeCounts());
+        if (sign > 0) {
+            t.allocated.increment();
+            t.allocatedBytes.add(size);
+        }
+        else {
+            t.freed.increment();
+            t.freedBytes.add(-size);
+        }
+    }
+
+    private static Pending pending() {
+        TransactionInfo info = lib.xpersistent.XTransaction.tlInfo.get();
+        return info.state == Transaction.State.Active ? info.heapChanges : null;
+    }
+
+    public static void transactionEnded(TransactionInfo info, boolean committed) {
+        Pending p = info.heapChanges;
+        if (committed) {
+            for (int i = 0; i < p.size; i++) {
+                long size = p.sizes[i];
+                int sign = size < 0 ? -1 : 1;
+                if (p.typeNames[i] == null) current.region(sign * size, sign);
+                else current.object(p.typeNames[i], sign * size, sign);
+            }
+        }
+        p.clear();
+    }
+
+    // region (null type name) and object size changes of the open transaction; negative sizes are frees
+    public static final class Pending {
+        private String[] typeNames = new String[16];
+        private long[] sizes = new long[16];
+        private int size;
+
+        void add(String typeName, long size) {
+            if (this.size == sizes.length) {
+                typeNames = Arrays.copyOf(typeNames, this.size * 2);
+                sizes = Arrays.copyOf(sizes, this.size * 2);
+            }
+            typeNames[this.size] = typeName;
+            sizes[this.size++] = size;
+        }
+
+        void clear() {
+            Arrays.fill(typeNames, 0, size, null);
+            size = 0;
+        }
+    }
+
+    public long usedBytes() {
+        long n = 0;
+        for (LongAdder b : classBytes) n += b.sum();
+        return n;
+    }
+
+    // capacity, free space and largest free extent come from the allocator, -1 where it cannot tell
+    public Snapshot snapshot(long capacity, long freeBytes, long largestFreeExtent) {
+        List<SizeClass> classes = new ArrayList<>();
+        for (int c = 0; c < SIZE_CLASSES; c++) {
+            long count = classCounts[c].sum();
+            if (count != 0) classes.add(new SizeClass(c == 0 ? 1 : 1L << c, count, classBytes[c].sum()));
+        }
+        Map<String, TypeUsage> usage = new TreeMap<>();
+        for (Map.Entry<String, TypeCounts> e : types.entrySet()) {
+            TypeCounts t = e.getValue();
+            usage.put(e.getKey(), new TypeUsage(t.allocated.sum(), t.allocatedBytes.sum(), t.freed.sum(), t.freedBytes.sum()));
+        }
+        return new Snapshot(capacity, freeBytes, largestFreeExtent, Collections.unmodifiableList(classes), Collections.unmodifiableMap(usage));
+    }
+
+    public static final class SizeClass {
+        private final long limit, count, bytes;
+
+        SizeClass(long limit, long count, long bytes) {
+            this.limit = limit;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        public long getLimit() {return limit;}      // largest region size in this class
+        public long getCount() {return count;}
+        public long getBytes() {return bytes;}
+    }
+
+    // objects of one type allocated and freed since the heap was opened
+    public static final class TypeUsage {
+        private final long allocated, allocatedBytes, freed, freedBytes;
+
+        TypeUsage(long allocated, long allocatedBytes, long freed, long freedBytes) {
+            this.allocated = allocated;
+            this.allocatedBytes = allocatedBytes;
+            this.freed = freed;
+            this.freedBytes = freedBytes;
+        }
+
+        public long getAllocated() {return allocated;}
+        public long getAllocatedBytes() {return allocatedBytes;}
+        public long getFreed() {return freed;}
+        public long getFreedBytes() {return freedBytes;}
+        public long getCount() {return allocated - freed;}          // net; negative if older objects were freed
+        public long getBytes() {return allocatedBytes - freedBytes;}
+    }
+
+    public static final class Snapshot {
+        private final long capacity, freeBytes, largestFreeExtent;
+        private final List<SizeClass> sizeClasses;
+        private final Map<String, TypeUsage> types;
+
+        Snapshot(long capacity, long freeBytes, long largestFreeExtent, List<SizeClass> sizeClasses, Map<String, TypeUsage> types) {
+            this.capacity = capacity;
+            this.freeBytes = freeBytes;
+            this.largestFreeExtent = largestFreeExtent;
+            this.sizeClasses = sizeClasses;
+            this.types = types;
+        }
+
+        public long getCapacity() {return capacity;}
+        public long getFreeBytes() {return freeBytes;}
+        public long getLargestFreeExtent() {return largestFreeExtent;}
+        public List<SizeClass> getSizeClasses() {return sizeClasses;}
+        public Map<String, TypeUsage> getTypes() {return types;}
+
+        public long getRegionCount() {
+            long n = 0;
+            for (SizeClass c : sizeClasses) n += c.count;
+            return n;
+        }
+
+        public long getUsedBytes() {
+            long n = 0;
+            for (SizeClass c : sizeClasses) n += c.bytes;
+            return n;
+        }
+
+        // share of free space not usable by an allocation of the largest free extent; 0 when unknown
+        public double getFragmentation() {
+            if (freeBytes <= 0 || largestFreeExtent < 0) return 0;
+            return 1.0 - (double)largestFreeExtent / freeBytes;
+        }
+
+        public void print() {
+            System.out.println("           Heap Stats");
+            System.out.println("-------------------------------");
+            System.out.format("capacity       :%,15d%n", capacity);
+            System.out.format("used           :%,15d%n", getUsedBytes());
+            System.out.format("free           :%,15d%n", freeBytes);
+            System.out.format("largest free   :%,15d%n", largestFreeExtent);
+            System.out.format("fragmentation  :%15.3f%n", getFragmentation());
+            System.out.format("regions        :%,15d%n", getRegionCount());
+            System.out.println();
+            System.out.println("size class          regions           bytes");
+            for (SizeClass c : sizeClasses) System.out.format("<= %,12d %,12d %,15d%n", c.limit, c.count, c.bytes);
+            System.out.println();
+            System.out.format("%-55s %12s %15s %12s %15s%n", "type (since open)", "allocated", "bytes", "freed", "bytes");
+            for (Map.Entry<String, TypeUsage> e : types.entrySet()) {
+                TypeUsage t = e.getValue();
+                System.out.format("%-55s %,12d %,15d %,12d %,15d%n", e.getKey(), t.allocated, t.allocatedBytes, t.freed, t.freedBytes);
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import java.util.Map;
+
+// JMX view of XHeap.getHeapStats(), registered as lib.util.persistent:type=HeapStats when the heap opens.
+// Sizes are in bytes; -1 where the backend cannot tell.
+public interface HeapStatsMXBean {
+    long getCapacity();
+    long getUsedBytes();
+    long getFreeBytes();
+    long getLargestFreeExtent();
+    double getFragmentation();
+    long getRegionCount();
+    Map<Long, Long> getRegionsBySizeClass();
+    // since the heap was opened
+    Map<String, Long> getObjectsAllocatedByType();
+    Map<String, Long> getBytesAllocatedByType();
+    Map<String, Long> getObjectsFreedByType();
+    Map<String, Long> getBytesFreedByType();
+}
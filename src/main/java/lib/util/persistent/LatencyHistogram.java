@@ -0,0 +1,121 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Concurrent log-linear histogram in the style of HdrHistogram: each power-of-two range of values
+// is split into 32 linear sub-buckets, so any recorded value is reported to within ~3%.
+// Values are non-negative longs, typically nanoseconds.
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    // records the time elapsed since start, a value from Stats.nanoTime(); 0 means not timed
+    public void recordSince(long start) {
+        if (start != 0) record(System.nanoTime() - start);
+    }
+
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += (copy[i] = counts.get(i));
+        return new Snapshot(copy, n, sum.sum(), max.get());
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int)(value >>> shift) & (SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    // largest value that falls in bucket i
+    static long highestEquivalentValue(int i) {
+        if (i < SUB_COUNT) return i;
+        int shift = i / SUB_COUNT - 1;
+        long lowest = (long)(SUB_COUNT + i % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // Immutable point-in-time copy; getters make it usable as a JMX composite value.
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {return count;}
+        public long getMax() {return max;}
+        public double getMean() {return count == 0 ? 0 : (double)sum / count;}
+        public long getP50() {return percentile(50);}
+        public long getP90() {return percentile(90);}
+        public long getP99() {return percentile(99);}
+        public long getP999() {return percentile(99.9);}
+
+        public long percentile(double p) {
+            if (count == 0) return 0;
+            long target = Math.max(1, (long)Math.ceil(p / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) return Math.min(highestEquivalentValue(i), max);
+            }
+            return max;
+        }
+
+        public String toString() {
+            return String.format("count=%,d mean=%,.0f p50=%,d p90=%,d p99=%,d p999=%,d max=%,d", 
+                count, getMean(), getP50(), getP90(), getP99(), getP999(), max);
+        }
+    }
+}
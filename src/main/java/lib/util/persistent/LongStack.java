@@ -0,0 +1,66 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import java.util.Arrays;
+
+// Growable LIFO of longs, for graph walks over object addresses without boxing each one.
+final class LongStack {
+    private long[] elements;
+    private int size;
+
+    LongStack() {
+        this(64);
+    }
+
+    LongStack(int capacity) {
+        elements = new long[Math.max(capacity, 4)];
+    }
+
+    void push(long x) {
+        if (size == elements.length) elements = Arrays.copyOf(elements, size * 2);
+        elements[size++] = x;
+    }
+
+    long pop() {
+        return elements[--size];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // moves the older half of the elements, the ones a depth-first walk would reach last, to a new stack
+    LongStack split() {
+        int half = size / 2;
+        LongStack ans = new LongStack(half);
+        System.arraycopy(elements, 0, ans.elements, 0, half);
+        ans.size = half;
+        System.arraycopy(elements, half, elements, 0, size - half);
+        size -= half;
+        return ans;
+    }
+}
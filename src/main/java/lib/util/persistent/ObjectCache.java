@@ -21,8 +21,6 @@
 
 package lib.util.persistent;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.ref.PhantomReference;
@@ -30,58 +28,115 @@ import java.lang.ref.Reference;
 import lib.util.persistent.spi.PersistentMemoryProvider;
 import lib.util.persistent.types.Types;
 import lib.util.persistent.types.ObjectType;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.ref.ReferenceQueue;
+import java.util.Arrays;
 import lib.xpersistent.XRoot;
 import lib.xpersistent.XTransaction;
 import lib.xpersistent.UncheckedPersistentMemoryRegion;
 import static lib.util.persistent.Trace.*;
 
 
+// With Config.OBJECT_CACHE_CAPACITY == 0 entries are SoftReferences and cache size is left to the GC.
+// Otherwise entries are WeakReferences, so an object keeps its identity for as long as the application
+// can reach it, and the cache itself holds at most OBJECT_CACHE_CAPACITY objects strongly, in striped
+// CLOCK segments. Entries whose referent has been collected are dropped from the map.
 public class ObjectCache {
-    private static final Map<Long, Reference<? extends AnyPersistent>> cache;
+    private static final ConcurrentLongMap<CachedRef<?>> cache;
+    private static final boolean BOUNDED = Config.OBJECT_CACHE_CAPACITY > 0;
+    private static final boolean SHARED_INSTANCES = BOUNDED || Config.ENABLE_BACKGROUND_CYCLE_COLLECTION || Config.OBJECT_CACHE_COLLECTOR_THREADS > 1;
+    private static final Segment[] segments;
+    private static final ReferenceQueue<AnyPersistent> cleared;
     private static ReferenceQueue<AnyPersistent> queue;
-    private static Map<Long, PRef<?>> prefs;
+    private static ConcurrentLongMap<PRef<?>> prefs;
     private static final PersistentHeap heap;
-    private static Thread collector;
+    private static final Thread[] collectors;
 
     static {
-        cache = new ConcurrentHashMap<>();
+        cache = new ConcurrentLongMap<>();
+        segments = BOUNDED ? createSegments(Config.OBJECT_CACHE_CAPACITY) : null;
+        cleared = BOUNDED ? new ReferenceQueue<>() : null;
         queue = new ReferenceQueue<>();
-        prefs = new ConcurrentHashMap<>();
+        prefs = new ConcurrentLongMap<>();
         heap = PersistentMemoryProvider.getDefaultProvider().getHeap();
-        collector = new Thread(() -> {
-            try {
-                while (true) {
-                    PRef<?> qref = (PRef)queue.remove();
+        collectors = new Thread[Math.max(1, Config.OBJECT_CACHE_COLLECTOR_THREADS)];
+        for (int i = 0; i < collectors.length; i++) {
+            collectors[i] = new Thread(ObjectCache::collect);
+            collectors[i].setDaemon(true);
+            collectors[i].start();
+        }
+    }
+
+    // Waits for a collected instance, then takes whatever else is already queued, up to a batch.
+    private static void collect() {
+        long[] addresses = new long[Math.max(1, Config.OBJECT_CACHE_COLLECTOR_BATCH)];
+        try {
+            while (true) {
+                PRef<?> qref = (PRef)queue.remove();
+                int n = 0;
+                do {
                     trace(qref.getAddress(), "object enqueued");
-                    Stats.current.memory.enqueued++;
-                    prefs.remove(qref.getAddress());
-                    if (!qref.isForAdmin()) {
-                        Transaction.run(() -> {
-                            long address = qref.getAddress();
-                            deregisterObject(address);
-                            AnyPersistent obj = get(address, true);
-                            if (obj != null) {
-                                Transaction.run(() -> {
-                                    obj.deleteReference();
-                                }, obj);
-                            }
-                        });
-                    }
+                    Stats.current.memory.enqueued.increment();
+                    // a later instance of the same object may have registered its own PRef since
+                    prefs.remove(qref.getAddress(), qref);
+                    if (!qref.isForAdmin()) addresses[n++] = qref.getAddress();
+                } while (n < addresses.length && (qref = (PRef)queue.poll()) != null);
+                if (n > 0) release(addresses, n);
+            }
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        }
+    }
+
+    // One transaction for the batch, in address order, with an address queued more than once released
+    // by its total. The batch only takes locks with a timeout, so it cannot deadlock with a mutator, and
+    // after a few failed attempts gives way: each reference is then released in a transaction of its own.
+    private static void release(long[] addresses, int n) {
+        Arrays.sort(addresses, 0, n);
+        TransactionInfo info = XTransaction.tlInfo.get();
+        try {
+            Transaction.run(() -> {
+                if (info.attempts > Config.OBJECT_CACHE_COLLECTOR_BATCH_ATTEMPTS) throw new GiveWay();
+                info.highestLocked = Long.MAX_VALUE;
+                for (int i = 0; i < n; ) {
+                    int j = i + 1;
+                    while (j < n && addresses[j] == addresses[i]) j++;
+                    release(addresses[i], j - i);
+                    i = j;
                 }
-            } catch (InterruptedException ie) {
-                ie.printStackTrace();
+            });
+        }
+        catch (GiveWay e) {
+            info.attempts = 1;
+            for (int i = 0; i < n; i++) {
+                long address = addresses[i];
+                Transaction.run(() -> release(address, 1));
             }
-        });
-        collector.setDaemon(true);
-        collector.start();
+        }
     }
 
-    public static class Ref<T extends AnyPersistent> extends SoftReference<T> {
+    private static void release(long address, int count) {
+        for (int i = 0; i < count; i++) deregisterObject(address);
+        AnyPersistent obj = get(address, true);
+        if (obj != null) {
+            Transaction.run(() -> {
+                obj.deleteReferences(count);
+            }, obj);
+        }
+    }
+
+    interface CachedRef<T extends AnyPersistent> {
+        T get();
+        long getAddress();
+        boolean isForAdmin();
+        void setForAdmin(boolean forAdmin);
+        boolean isPending();
+        void setPending(boolean pending);
+    }
+
+    public static class Ref<T extends AnyPersistent> extends SoftReference<T> implements CachedRef<T> {
         private long address;
         private boolean forAdmin;
+        private volatile boolean pending;
 
         public Ref(T obj) {
             this(obj, false);
@@ -96,9 +151,122 @@ public class ObjectCache {
         public long getAddress() {return address;}
         public boolean isForAdmin() {return forAdmin;}
         public void setForAdmin(boolean forAdmin) {this.forAdmin = forAdmin;}
+        public boolean isPending() {return pending;}
+        public void setPending(boolean pending) {this.pending = pending;}
         public String toString() {return String.format("Ref(%d, %s)\n", address, isForAdmin());}
     }
 
+    // bounded-mode entry; slot and referenced are CLOCK state owned by the address's segment
+    static final class WeakRef<T extends AnyPersistent> extends WeakReference<T> implements CachedRef<T> {
+        private final long address;
+        private volatile boolean forAdmin;
+        private volatile boolean pending;
+        int slot = -1;
+        boolean referenced;
+
+        WeakRef(T obj, boolean forAdmin) {
+            super(obj, cleared);
+            this.address = obj.getPointer().addr();
+            this.forAdmin = forAdmin;
+        }
+
+        public long getAddress() {return address;}
+        public boolean isForAdmin() {return forAdmin;}
+        public void setForAdmin(boolean forAdmin) {this.forAdmin = forAdmin;}
+        public boolean isPending() {return pending;}
+        public void setPending(boolean pending) {this.pending = pending;}
+        public String toString() {return String.format("WeakRef(%d, %s)\n", address, isForAdmin());}
+    }
+
+    // CLOCK over the strongly held objects of one stripe of the address space
+    static final class Segment {
+        private final AnyPersistent[] objects;
+        private final WeakRef<?>[] refs;
+        private int hand;
+        private int count;
+
+        Segment(int capacity) {
+            objects = new AnyPersistent[capacity];
+            refs = new WeakRef<?>[capacity];
+        }
+
+        synchronized void admit(WeakRef<?> ref, AnyPersistent obj) {
+            if (ref.slot >= 0) return;
+            int n = objects.length;
+            if (count < n) {
+                while (objects[hand] != null) hand = (hand + 1) % n;
+                count++;
+            }
+            else {
+                while (refs[hand].referenced) {
+                    refs[hand].referenced = false;
+                    hand = (hand + 1) % n;
+                }
+                refs[hand].slot = -1;
+                Stats.current.objectCache.evictions.increment();
+            }
+            objects[hand] = obj;
+            refs[hand] = ref;
+            ref.slot = hand;
+            hand = (hand + 1) % n;
+        }
+
+        synchronized void remove(WeakRef<?> ref) {
+            int i = ref.slot;
+            if (i < 0 || refs[i] != ref) return;
+            objects[i] = null;
+            refs[i] = null;
+            ref.slot = -1;
+            count--;
+        }
+
+        synchronized int size() {return count;}
+    }
+
+    private static Segment[] createSegments(int capacity) {
+        int n = Math.max(1, Integer.highestOneBit(Math.min(64, capacity / 16)));
+        Segment[] ans = new Segment[n];
+        for (int i = 0; i < n; i++) ans[i] = new Segment(capacity / n + (i < capacity % n ? 1 : 0));
+        return ans;
+    }
+
+    private static Segment segmentFor(long address) {
+        long h = (address ^ (address >>> 21)) * 0x9E3779B97F4A7C15L;
+        return segments[(int)(h >>> 40) & (segments.length - 1)];
+    }
+
+    // number of objects the cache is holding strongly; -1 when size is left to the GC
+    public static int retainedCount() {
+        if (!BOUNDED) return -1;
+        int ans = 0;
+        for (Segment s : segments) ans += s.size();
+        return ans;
+    }
+
+    private static void expungeCleared() {
+        CachedRef<?> ref;
+        while ((ref = (CachedRef<?>)cleared.poll()) != null) cache.remove(ref.getAddress(), ref);
+    }
+
+    private static <T extends AnyPersistent> CachedRef<T> newRef(T obj, boolean forAdmin) {
+        CachedRef<T> ref = createRef(obj, forAdmin);
+        if (BOUNDED) segmentFor(ref.getAddress()).admit((WeakRef<?>)ref, obj);
+        return ref;
+    }
+
+    private static <T extends AnyPersistent> CachedRef<T> createRef(T obj, boolean forAdmin) {
+        if (!BOUNDED) return new Ref<>(obj, forAdmin);
+        expungeCleared();
+        return new WeakRef<>(obj, forAdmin);
+    }
+
+    private static void touch(CachedRef<?> ref, AnyPersistent obj) {
+        if (!BOUNDED) return;
+        WeakRef<?> w = (WeakRef<?>)ref;
+        if (w.slot >= 0) w.referenced = true;
+        else segmentFor(w.getAddress()).admit(w, obj);
+    }
+
     public static class PRef<T extends AnyPersistent> extends PhantomReference<T> {
         private long address;
         private boolean forAdmin;
@@ -128,58 +296,104 @@ public class ObjectCache {
     @SuppressWarnings("unchecked")
     public static <T extends AnyPersistent> T get(long address, boolean forAdmin) {
         // trace(address, "ObjectCache.get()");
-        Ref<?> ref = getReference(address, forAdmin);
+        CachedRef<?> ref = getReference(address, forAdmin);
         return ref == null ? null :(T)ref.get();
     }
 
+    // live, non-admin object for address if already cached; never materializes or promotes
     @SuppressWarnings("unchecked")
-    private static <T extends AnyPersistent> Ref<T> getReference(long address, boolean forAdmin) {
+    static <T extends AnyPersistent> T getIfCached(long address) {
+        CachedRef<?> ref = cache.get(address);
+        if (ref == null || ref.isForAdmin()) return null;
+        T obj = (T)ref.get();
+        if (obj != null) touch(ref, obj);
+        return obj;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends AnyPersistent> CachedRef<T> getReference(long address, boolean forAdmin) {
         T obj = null;
-        Ref ref = null;
+        CachedRef<T> ref = null;
         if (address == 0) return null;
-        ref = (Ref<T>)cache.get(address);
-        if (ref == null || (obj = (T)ref.get()) == null) {   
+        ref = (CachedRef<T>)cache.get(address);
+        if (ref == null || (obj = ref.get()) == null) {   
             // trace(address, "MISS: " + (ref == null ? "simple" : "null referent"));
-            // if (ref == null) Stats.current.objectCache.simpleMisses++; else Stats.current.objectCache.referentMisses++;
+            if (ref == null) Stats.current.objectCache.simpleMisses.increment(); else Stats.current.objectCache.referentMisses.increment();
+            if (SHARED_INSTANCES) return sharedReference(address, forAdmin);
             obj = objectForAddress(address, forAdmin);
-            ref = new Ref(obj, forAdmin);
+            ref = newRef(obj, forAdmin);
             cache.put(address, ref);
         }
         else if (ref.isForAdmin() && !forAdmin) {   
                 // trace(address, "HIT: forAdmin -> !forAdmin");
+                if (SHARED_INSTANCES) {
+                    promote(ref, obj);
+                    touch(ref, obj);
+                    Stats.current.objectCache.promotedHits.increment();
+                    return ref;
+                }
                 ref.setForAdmin(false);
-                obj = (T)ref.get();
                 obj.initForGC();
-                // Stats.current.objectCache.promotedHits++;
+                touch(ref, obj);
+                Stats.current.objectCache.promotedHits.increment();
+        }
+        else {
+            touch(ref, obj);
+            Stats.current.objectCache.simpleHits.increment();
         }
-        // else Stats.current.objectCache.simpleHits++;
         assert(obj != null);
         return ref;
     }
 
+    // The background cycle collector, and collector threads releasing counts side by side, are serialized
+    // against mutators and each other by the locks of cached instances, and a bounded cache makes misses on
+    // live addresses routine, so an address must map to a single instance, and reference counts are only
+    // raised under that instance's lock: concurrent misses race to publish an admin instance and the winner
+    // is promoted.
+    @SuppressWarnings("unchecked")
+    private static <T extends AnyPersistent> CachedRef<T> sharedReference(long address, boolean forAdmin) {
+        T fresh = objectForAddress(address, true);
+        CachedRef<T> mine = createRef(fresh, true);
+        CachedRef<T> ref;
+        T obj;
+        while (true) {
+            ref = (CachedRef<T>)cache.putIfAbsent(address, mine);
+            if (ref == null) {
+                ref = mine;
+                obj = fresh;
+                break;
+            }
+            if ((obj = ref.get()) != null) break;
+            cache.remove(address, ref);
+        }
+        if (!forAdmin) promote(ref, obj);
+        touch(ref, obj);
+        return ref;
+    }
+
+    // Serialized by the object's lock, not a monitor: the collector holds that lock while it works and may
+    // itself promote instances while a mutator waits for it. The count is taken in the caller's transaction,
+    // so the ref stays pending until that commits; were it published at once, an abort would roll the count
+    // back under an instance other threads already use.
+    private static <T extends AnyPersistent> void promote(CachedRef<T> ref, T obj) {
+        Transaction.run(() -> {
+            if (ref.isForAdmin() && !ref.isPending()) {
+                obj.initForGC();
+                XTransaction.addNewObject(obj);
+                ref.setPending(true);
+            }
+        }, obj);
+    }
+
     @SuppressWarnings("unchecked")
     static <T extends AnyPersistent> T objectForAddress(long address, boolean forAdmin) {
         // trace("objectForAddress(address: %d, forAdmin: %s)", address, forAdmin); 
         MemoryRegion valueRegion = new UncheckedPersistentMemoryRegion(address);
-        long typeNameAddr = valueRegion.getLong(0);
-        MemoryRegion typeNameRegion = new UncheckedPersistentMemoryRegion(typeNameAddr);
-        String typeName = AnyPersistent.typeNameFromRegion(typeNameRegion);
-        ObjectType<T> type = Types.typeForName(typeName);
-        Class<T> cls = type.cls();
+        ObjectType<T> type = AnyPersistent.typeForRegion(valueRegion);
         Box<T> box = new Box<>(null);
         Transaction.run(() -> {
-            try {
-                Constructor ctor = cls.getDeclaredConstructor(ObjectPointer.class);
-                ctor.setAccessible(true);
-                box.set((T)ctor.newInstance(new ObjectPointer<T>(type, valueRegion)));
-                if (!forAdmin) box.get().initForGC();       
-            }
-            catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
-                if (e instanceof InvocationTargetException && e.getCause() instanceof TransactionRetryException){
-                    throw new TransactionRetryException();
-                }
-                else throw new RuntimeException("failed to call reflected constructor"+e);
-            }
+            box.set(type.newInstance(new ObjectPointer<T>(type, valueRegion)));
+            if (!forAdmin) box.get().initUnpublishedForGC();
             if (!forAdmin) XTransaction.addNewObject(box.get());
         });
         return box.get();
@@ -187,14 +401,33 @@ public class ObjectCache {
 
     public static void remove(long address) {
        // trace(address, "ObjectCache.remove");
-        cache.remove(address);
+        CachedRef<?> ref = cache.remove(address);
+        if (BOUNDED && ref != null) segmentFor(address).remove((WeakRef<?>)ref);
+    }
+
+    // An object freed by a transaction leaves the cache when that commits. Dropped at once, an abort would
+    // leave the next lookup building a second instance, with a lock of its own, beside one that other
+    // threads may hold or be waiting to lock.
+    static void freed(long address) {
+        CachedRef<?> ref = cache.get(address);
+        if (ref == null) return;
+        AnyPersistent obj = ref.get();
+        if (obj == null) cache.remove(address, ref);
+        else XTransaction.tlInfo.get().freed.add(obj);
+    }
+
+    // the region may already hold a new object, so only obj's own entry is removed
+    public static void committedFree(AnyPersistent obj) {
+        long address = obj.getPointer().addr();
+        CachedRef<?> ref = cache.get(address);
+        if (ref == null || ref.get() != obj || !cache.remove(address, ref)) return;
+        if (BOUNDED) segmentFor(address).remove((WeakRef<?>)ref);
     }
 
     static <T extends AnyPersistent> void add(T obj) {
         // trace(obj.getPointer().addr(), "ObjectCache.add");
         long address = obj.getPointer().addr();
-        Ref<T> ref = new Ref<>(obj);
-        cache.put(address, ref);
+        cache.put(address, newRef(obj, false));
         XTransaction.addNewObject(obj);        
     }
 
@@ -212,5 +445,24 @@ public class ObjectCache {
     public static void committedConstruction(AnyPersistent obj) {
         // trace(obj.getPointer().addr(), "committedConstruction called");
         new PRef<AnyPersistent>(obj);
+        if (SHARED_INSTANCES) {
+            CachedRef<?> ref = pendingRef(obj);
+            if (ref != null) {
+                ref.setForAdmin(false);
+                ref.setPending(false);
+            }
+        }
+    }
+
+    // an aborted promotion leaves the entry an admin one, to be promoted again by its next lookup
+    public static void abortedConstruction(AnyPersistent obj) {
+        if (!SHARED_INSTANCES) return;
+        CachedRef<?> ref = pendingRef(obj);
+        if (ref != null) ref.setPending(false);
+    }
+
+    private static CachedRef<?> pendingRef(AnyPersistent obj) {
+        CachedRef<?> ref = cache.get(obj.getPointer().addr());
+        return ref != null && ref.isPending() && ref.get() == obj ? ref : null;
     }
 }
@@ -0,0 +1,95 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+// Per-object transaction lock. The reentrant form is the classic exclusive lock; the stamped form
+// is exclusive for transactional writers but also hands out optimistic read stamps so that
+// non-transactional readers can read a field without taking the lock and validate afterwards.
+// Implementations extend the JDK locks directly so each locked object pays for a single lock object.
+interface ObjectLock {
+    static ObjectLock newLock() {
+        return Config.USE_OPTIMISTIC_READS ? new Stamped() : new Reentrant();
+    }
+
+    void lock();
+    boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException;
+    void unlock();
+    boolean isHeldByCurrentThread();
+    boolean isLocked();
+
+    // 0 if no optimistic read is possible right now (e.g. a writer holds the lock)
+    default long tryOptimisticRead() {return 0;}
+
+    // true if no writer has held the lock since the stamp was issued
+    default boolean validate(long stamp) {return false;}
+
+    @SuppressWarnings("serial")
+    final class Reentrant extends ReentrantLock implements ObjectLock {
+        Reentrant() {super(true);}
+    }
+
+    // StampedLock is not reentrant; transactions re-lock objects they already hold, so the owner
+    // and hold count are tracked here. Both are only written by the thread holding the write stamp.
+    @SuppressWarnings("serial")
+    final class Stamped extends StampedLock implements ObjectLock {
+        private Thread owner;
+        private int holds;
+        private long stamp;
+
+        public void lock() {
+            Thread t = Thread.currentThread();
+            if (owner == t) {holds++; return;}
+            long s = writeLock();
+            acquired(t, s);
+        }
+
+        public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            Thread t = Thread.currentThread();
+            if (owner == t) {holds++; return true;}
+            long s = tryWriteLock(timeout, unit);
+            if (s == 0) return false;
+            acquired(t, s);
+            return true;
+        }
+
+        private void acquired(Thread t, long s) {
+            stamp = s;
+            owner = t;
+            holds = 1;
+        }
+
+        public void unlock() {
+            if (owner != Thread.currentThread()) throw new IllegalMonitorStateException();
+            if (--holds == 0) {
+                owner = null;
+                unlockWrite(stamp);
+            }
+        }
+
+        public boolean isHeldByCurrentThread() {return owner == Thread.currentThread();}
+        public boolean isLocked() {return isWriteLocked();}
+    }
+}
@@ -0,0 +1,204 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import lib.xpersistent.UncheckedPersistentMemoryRegion;
+import lib.xpersistent.XRoot;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import static lib.util.persistent.CycleCollector.BLACK;
+import static lib.util.persistent.CycleCollector.GREY;
+import static lib.util.persistent.CycleCollector.WHITE;
+
+// Trial deletion over the whole candidate set, with marking and scanning spread over a fork/join pool.
+// Workers never write the heap: every object they reach gets a transient Mark holding its trial reference
+// count and colour, so there is nothing to lock or log while they run. The candidates are split into
+// chunks of roots, and a worker whose stack grows past SPLIT_THRESHOLD hands its older half to a new task,
+// so one large subgraph is shared out too. Colour changes are claimed by CAS, so each object's references
+// are subtracted once while marking and restored at most once while scanning.
+// The outcome is made persistent afterwards by apply(), on the calling thread and in its transaction:
+// white objects are freed and the rest turn black, keeping only the references that did not come from garbage.
+final class ParallelTrialDeletion {
+    private static final int ROOTS_PER_TASK = 1024;
+    private static final int SPLIT_THRESHOLD = 4096;
+    private static final long BLACKEN = Long.MIN_VALUE;    // tags a scan-phase stack entry as scanBlack work
+    private static final long REF_COUNT_OFFSET = Header.TYPE.getOffset(Header.REF_COUNT);
+    private static final long REF_COLOR_OFFSET = Header.TYPE.getOffset(Header.REF_COLOR);
+
+    private final ConcurrentLongMap<Mark> marks = new ConcurrentLongMap<>();
+
+    private ParallelTrialDeletion() {}
+
+    // roots are the purple candidates; returns the number of objects freed
+    static int collect(long[] roots, XRoot root, int parallelism) {
+        ParallelTrialDeletion td = new ParallelTrialDeletion();
+        // a class initializer may allocate, which needs the heap's monitor, and the opening thread holds it
+        // while it waits for the workers, so no worker may be the first to meet a type
+        TypeRegistry.get().resolveAll();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.invoke(td.new Walk(false, roots, 0, roots.length));
+            pool.invoke(td.new Walk(true, roots, 0, roots.length));
+        }
+        finally {
+            pool.shutdown();
+        }
+        return td.apply(root);
+    }
+
+    private Mark mark(long addr) {
+        Mark m = marks.get(addr);
+        if (m == null) {
+            Mark fresh = new Mark(addr, new UncheckedPersistentMemoryRegion(addr).getInt(REF_COUNT_OFFSET));
+            m = marks.putIfAbsent(addr, fresh);
+            if (m == null) m = fresh;
+        }
+        return m;
+    }
+
+    private void markGrey(long addr, LongStack stack) {
+        if (!mark(addr).claim(GREY)) return;
+        AnyPersistent.forEachChildAddress(addr, child -> {
+            mark(child).add(-1);
+            stack.push(child);
+        });
+    }
+
+    private void scan(long entry, LongStack stack) {
+        if (entry < 0) {
+            scanBlack(entry & ~BLACKEN, stack);
+            return;
+        }
+        Mark m = marks.get(entry);
+        if (m.color != GREY) return;
+        if (m.count > 0) scanBlack(entry, stack);
+        else if (m.casColor(GREY, WHITE)) AnyPersistent.forEachChildAddress(entry, stack::push);
+    }
+
+    private void scanBlack(long addr, LongStack stack) {
+        if (!marks.get(addr).claim(BLACK)) return;
+        AnyPersistent.forEachChildAddress(addr, child -> {
+            Mark c = marks.get(child);
+            c.add(1);
+            if (c.color != BLACK) stack.push(child | BLACKEN);
+        });
+    }
+
+    private int apply(XRoot root) {
+        LongStack garbage = new LongStack();
+        marks.forEachValue(m -> {
+            if (m.color == WHITE) {
+                garbage.push(m.addr);
+                return;
+            }
+            MemoryRegion reg = new UncheckedPersistentMemoryRegion(m.addr);
+            if (reg.getByte(REF_COLOR_OFFSET) != BLACK) reg.putByte(REF_COLOR_OFFSET, BLACK);
+            if (reg.getInt(REF_COUNT_OFFSET) != m.count) reg.putInt(REF_COUNT_OFFSET, m.count);
+        });
+        int freed = garbage.size();
+        while (!garbage.isEmpty()) {
+            long addr = garbage.pop();
+            AnyPersistent.free(addr);
+            root.removeFromAllObjects(addr);
+        }
+        return freed;
+    }
+
+    private final class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final boolean scan;
+        private final long[] roots;
+        private final int from, to;
+        private LongStack stack;
+
+        Walk(boolean scan, long[] roots, int from, int to) {
+            this.scan = scan;
+            this.roots = roots;
+            this.from = from;
+            this.to = to;
+        }
+
+        Walk(boolean scan, LongStack stack) {
+            this(scan, null, 0, 0);
+            this.stack = stack;
+        }
+
+        @Override
+        protected void compute() {
+            if (stack == null) {
+                if (to - from > ROOTS_PER_TASK) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new Walk(scan, roots, from, mid), new Walk(scan, roots, mid, to));
+                    return;
+                }
+                stack = new LongStack(to - from);
+                for (int i = to - 1; i >= from; i--) stack.push(roots[i]);
+            }
+            ArrayList<Walk> forked = null;
+            while (!stack.isEmpty()) {
+                long entry = stack.pop();
+                if (scan) scan(entry, stack);
+                else markGrey(entry, stack);
+                if (stack.size() > SPLIT_THRESHOLD && getSurplusQueuedTaskCount() == 0) {
+                    Walk w = new Walk(scan, stack.split());
+                    w.fork();
+                    if (forked == null) forked = new ArrayList<>();
+                    forked.add(w);
+                }
+            }
+            if (forked != null) for (Walk w : forked) w.join();
+        }
+    }
+
+    private static final class Mark {
+        private static final AtomicIntegerFieldUpdater<Mark> COUNT = AtomicIntegerFieldUpdater.newUpdater(Mark.class, "count");
+        private static final AtomicIntegerFieldUpdater<Mark> COLOR = AtomicIntegerFieldUpdater.newUpdater(Mark.class, "color");
+
+        final long addr;
+        volatile int count;
+        volatile int color = BLACK;     // not yet part of the trial
+
+        Mark(long addr, int count) {
+            this.addr = addr;
+            this.count = count;
+        }
+
+        void add(int delta) {
+            COUNT.addAndGet(this, delta);
+        }
+
+        boolean casColor(int expected, int color) {
+            return COLOR.compareAndSet(this, expected, color);
+        }
+
+        // false if another worker already gave it this colour
+        boolean claim(int c) {
+            while (true) {
+                int old = color;
+                if (old == c) return false;
+                if (COLOR.compareAndSet(this, old, c)) return true;
+            }
+        }
+    }
+}
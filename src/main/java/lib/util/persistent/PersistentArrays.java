@@ -68,7 +68,7 @@ public class PersistentArrays{
     }
 
      @SuppressWarnings("unchecked")
-    public static synchronized <T extends AnyPersistent> void ArrayCopy(PersistentArray<T> src, int srcPos, PersistentArray<T> dest, int destPos, int length){
+    public static <T extends AnyPersistent> void ArrayCopy(PersistentArray<T> src, int srcPos, PersistentArray<T> dest, int destPos, int length){
         if (src.equals(null) || dest.equals(null))
             throw new NullPointerException("Cannot copy to or from Null Array");
         if (srcPos < 0 || destPos < 0 || length < 0)
@@ -78,7 +78,8 @@ public class PersistentArrays{
         if (destPos+length > ((AbstractPersistentArray)dest).length())
             throw new IndexOutOfBoundsException("Index out of bounds: dest Array");
 
-        //special overlap case. Start copying from end
+        // src and dest are locked up front, in address order, rather than serializing all copies;
+        // special overlap case: start copying from end
         Transaction.run(() -> {
             if (src.equals(dest) && srcPos < destPos && destPos <= srcPos + length -1) {
                 for (int i=length-1; i>=0; i--) {
@@ -89,7 +90,7 @@ public class PersistentArrays{
                     dest.set(destPos+i, src.get(srcPos+i));
                 }
             }
-        });
+        }, src, dest);
     }
 
     public static void toByteArray(AnyPersistent src, byte[] dest, int length) {
@@ -30,6 +30,7 @@ import java.util.AbstractCollection;
 import java.util.NoSuchElementException;
 import java.util.Spliterator;
 import java.util.function.Consumer;
+import java.util.concurrent.locks.StampedLock;
 import lib.util.persistent.types.*;
 
 public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent> extends PersistentObject {
@@ -61,15 +62,15 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
         protected Node(ObjectPointer<? extends Node> p) { super(p); }
 
         @SuppressWarnings("unchecked")
-        public synchronized final K getKey() { return (K)getObjectField(KEY); }
+        public final K getKey() { return (K)getObjectField(KEY); }
         @SuppressWarnings("unchecked")
-        public synchronized final V getValue() { return (V)getObjectField(VALUE); }
+        public final V getValue() { return (V)getObjectField(VALUE); }
 
         @SuppressWarnings("unchecked")
-        public synchronized final Node<K, V> getNext() { return (Node<K, V>)getObjectField(NEXT); }
+        public final Node<K, V> getNext() { return (Node<K, V>)getObjectField(NEXT); }
         public synchronized final void setNext(Node<K, V> next) { setObjectField(NEXT, next); }
 
-        public synchronized final int getHash() { return getIntField(HASH); }
+        public final int getHash() { return getIntField(HASH); }
 
         public synchronized final String toString() {
             return ((K)getKey()).toString() + " = " + ((V)getValue()).toString();
@@ -108,8 +109,10 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
                 return false;
             Map.Entry<?,?> e = (Map.Entry<?,?>)o;
             Object key = e.getKey();
-            Node<K, V> candidate = getNode(hash(key), key);
-            return candidate != null && candidate.equals(e);
+            synchronized (PersistentHashMap.this) {
+                Node<K, V> candidate = getNode(hash(key), key);
+                return candidate != null && candidate.equals(e);
+            }
         }
         public final boolean remove(Object o) {
             throw new UnsupportedOperationException();
@@ -236,7 +239,7 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
 
     protected PersistentHashMap(ObjectPointer<? extends PersistentHashMap> p) { super(p); }
 
-    public synchronized int size() { return getIntField(SIZE); }
+    public int size() { return getIntField(SIZE); }
 
     private void size(int size) { setIntField(SIZE, size); }
     private int threshold() { return getIntField(THRESHOLD); }
@@ -248,12 +251,27 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
     private PersistentArray<Node<K, V>> table() { return (PersistentArray<Node<K, V>>)getObjectField(TABLE); }
     private void table(PersistentArray<Node<K, V>> table) { setObjectField(TABLE, table); }
 
+    // structural writers (put, removeNode) hold the write stamp, under the map monitor;
+    // get and containsKey traverse without the monitor and validate against it
+    private final StampedLock structure = new StampedLock();
+
     private Set<Map.Entry<K, V>> entrySet;
     private Set<K> keySet;
     private Collection<V> values;
 
     public synchronized V put(K key, V value) {
         final Box<V> ret = new Box<>();
+        long stamp = structure.writeLock();
+        try {
+            putInTransaction(key, value, ret);
+        }
+        finally {
+            structure.unlockWrite(stamp);
+        }
+        return ret.get();
+    }
+
+    private void putInTransaction(K key, V value, Box<V> ret) {
         Transaction.run(() -> {
             PersistentArray<Node<K, V>> tab;
             Node<K, V> p;
@@ -294,12 +312,24 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
                     resize();
             }
         });
-        return ret.get();
     }
 
-    public synchronized V get(Object key) {
-        Node<K, V> e;
-        return (e = getNode(hash(key), key)) == null ? null : e.getValue();
+    public V get(Object key) {
+        if (Config.USE_OPTIMISTIC_READS) {
+            long stamp = structure.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Node<K, V> e = getNode(hash(key), key);
+                    V v = (e == null ? null : e.getValue());
+                    if (structure.validate(stamp)) return v;
+                }
+                catch (RuntimeException re) {if (structure.validate(stamp)) throw re;}
+            }
+        }
+        synchronized (this) {
+            Node<K, V> e;
+            return (e = getNode(hash(key), key)) == null ? null : e.getValue();
+        }
     }
 
     public synchronized V remove(Object key) {
@@ -322,8 +352,20 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
         return (vs = values) == null ? (values = new Values()) : vs;
     }
 
-    public synchronized boolean containsKey(Object key) {
-        return getNode(hash(key), key) != null;
+    public boolean containsKey(Object key) {
+        if (Config.USE_OPTIMISTIC_READS) {
+            long stamp = structure.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    boolean found = getNode(hash(key), key) != null;
+                    if (structure.validate(stamp)) return found;
+                }
+                catch (RuntimeException re) {if (structure.validate(stamp)) throw re;}
+            }
+        }
+        synchronized (this) {
+            return getNode(hash(key), key) != null;
+        }
     }
 
     public synchronized boolean containsValue(Object value) {
@@ -416,7 +458,8 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
         return ret.get();
     }
 
-    final synchronized Node<K, V> getNode(int hash, Object key) {
+    // callers hold the map monitor or validate a structure stamp
+    final Node<K, V> getNode(int hash, Object key) {
         PersistentArray<Node<K, V>> tab;
         Node<K, V> first, e;
         int n;
@@ -440,6 +483,17 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
 
     final synchronized Node<K, V> removeNode(int hash, Object key, Object value, boolean matchValue, boolean movable) {
         final Box<Node<K, V>> ret = new Box<>();
+        long stamp = structure.writeLock();
+        try {
+            removeInTransaction(hash, key, value, matchValue, ret);
+        }
+        finally {
+            structure.unlockWrite(stamp);
+        }
+        return ret.get();
+    }
+
+    private void removeInTransaction(int hash, Object key, Object value, boolean matchValue, Box<Node<K, V>> ret) {
         Transaction.run(() -> {
             PersistentArray<Node<K, V>> tab;
             Node<K, V> p;
@@ -474,7 +528,6 @@ public class PersistentHashMap<K extends AnyPersistent, V extends AnyPersistent>
                 }
             }
         });
-        return ret.get();
     }
 
     static final int hash(Object key) {
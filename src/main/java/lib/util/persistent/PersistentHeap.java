@@ -24,7 +24,7 @@ package lib.util.persistent;
 public interface PersistentHeap {
     void open();
     void close();
-    MemoryRegion allocateRegion(long size);
+    MemoryRegion allocateRegion(long size);    // returned region is zero-filled
     void freeRegion(MemoryRegion region);
     Root getRoot();
 }
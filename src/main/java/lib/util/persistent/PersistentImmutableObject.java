@@ -43,7 +43,6 @@ import lib.util.persistent.types.FinalCharField;
 import lib.util.persistent.types.FinalBooleanField;
 import lib.util.persistent.types.FinalObjectField;
 import lib.util.persistent.types.PersistentField;
-import java.lang.reflect.Constructor;
 import static lib.util.persistent.Trace.*;
 import java.util.function.Consumer;
 import java.util.Arrays;
@@ -108,15 +107,7 @@ public class PersistentImmutableObject extends AnyPersistent {
             MemoryRegion dstRegion = new VolatileMemoryRegion(type.getSize());
             // trace(true, "getObject (valueBased) src addr = %d, dst  = %s, size = %d", srcRegion.addr(), dstRegion, type.getSize());
             Util.memCopy(getPointer().type(), (ObjectType)type, srcRegion, offset, dstRegion, 0L, type.getSize());
-            T obj = null;
-            try {
-                Constructor ctor = ((ObjectType)type).cls().getDeclaredConstructor(ObjectPointer.class);
-                ctor.setAccessible(true);
-                ObjectPointer p = new ObjectPointer<T>((ObjectType)type, dstRegion);
-                obj = (T)ctor.newInstance(p);
-            }
-            catch (Exception e) {e.printStackTrace();}
-            ans = obj;
+            ans = ((ObjectType<T>)type).newInstance(new ObjectPointer<T>((ObjectType<T>)type, dstRegion));
         }
         else {
             long valueAddr = getRegionLong(offset);
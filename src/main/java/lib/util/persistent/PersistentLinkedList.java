@@ -26,12 +26,16 @@ import lib.util.persistent.types.ObjectType;
 import java.lang.StringBuilder;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
 
 public class PersistentLinkedList<E extends AnyPersistent> extends PersistentObject implements Iterable<E> {
 	
     private static final IntField SIZE = new IntField();
     private static final ObjectField<PersistentEntry> HEADER = new ObjectField<>(PersistentEntry.class);
     public static final ObjectType<PersistentLinkedList> TYPE = ObjectType.fromFields(PersistentLinkedList.class, SIZE, HEADER);
+
+    // writers hold the write stamp under the list monitor; get traverses without the monitor and validates
+    private final StampedLock structure = new StampedLock();
 	
     public PersistentLinkedList() {
         this(TYPE);
@@ -46,82 +50,125 @@ public class PersistentLinkedList<E extends AnyPersistent> extends PersistentObj
 	protected PersistentLinkedList(ObjectPointer<? extends PersistentLinkedList> p) {super(p);}
 	
 	public synchronized void add(E element) {
-		Transaction.run(() -> {	
-			if(size() == 0) getHeader().setElement(element);
-	        else {
-	        	PersistentEntry<E> last = traverseToEntryAt(size()-1);
-			    last.setNext(new PersistentEntry<E>(element, null));
-	        }
-			incrementSize();
-		});
+		long stamp = structure.writeLock();
+		try {
+			Transaction.run(() -> {	
+				if(size() == 0) getHeader().setElement(element);
+		        else {
+		        	PersistentEntry<E> last = traverseToEntryAt(size()-1);
+				    last.setNext(new PersistentEntry<E>(element, null));
+		        }
+				incrementSize();
+			});
+		}
+		finally {
+			structure.unlockWrite(stamp);
+		}
 	}
 	
 	public synchronized void insert(int index, E element) {
 		if (index < 0 || index > size()) throw new IndexOutOfBoundsException("Correct range of index is [0,Size]");		
 		
-		Transaction.run(() -> {	
-			if(index == 0) setHeader(new PersistentEntry<E>(element, getHeader()));
-			else {
-				PersistentEntry<E> prev = traverseToEntryAt(index-1);
-				PersistentEntry<E> newEntry = new PersistentEntry<E>(element, prev.getNext());
-				prev.setNext(newEntry);
-			}
-			incrementSize();
-		});
+		long stamp = structure.writeLock();
+		try {
+			Transaction.run(() -> {	
+				if(index == 0) setHeader(new PersistentEntry<E>(element, getHeader()));
+				else {
+					PersistentEntry<E> prev = traverseToEntryAt(index-1);
+					PersistentEntry<E> newEntry = new PersistentEntry<E>(element, prev.getNext());
+					prev.setNext(newEntry);
+				}
+				incrementSize();
+			});
+		}
+		finally {
+			structure.unlockWrite(stamp);
+		}
 	}
 	
 	public synchronized void remove(int index) {
 		if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Correct range of index is [0,Size)");
 
-        Transaction.run(() -> {			
-			
-			PersistentEntry<E> toDelete;
-			if(index == 0) {
-				toDelete = getHeader();
-				setHeader(toDelete.getNext());				
-			}
-			else {		
-				PersistentEntry<E> prev = traverseToEntryAt(index-1);
-				toDelete = prev.getNext();
-				prev.setNext(prev.getNext().getNext());					
-			}
-			toDelete.setElement(null);
-			toDelete.setNext(null);
-			decrementSize();
-		});
+		long stamp = structure.writeLock();
+		try {
+			Transaction.run(() -> {			
+				PersistentEntry<E> toDelete;
+				if(index == 0) {
+					toDelete = getHeader();
+					setHeader(toDelete.getNext());				
+				}
+				else {		
+					PersistentEntry<E> prev = traverseToEntryAt(index-1);
+					toDelete = prev.getNext();
+					prev.setNext(prev.getNext().getNext());					
+				}
+				toDelete.setElement(null);
+				toDelete.setNext(null);
+				decrementSize();
+			});
+		}
+		finally {
+			structure.unlockWrite(stamp);
+		}
 	}
 	
 	public synchronized void clear() {
-		Transaction.run(() -> {		
-			PersistentEntry<E> cursor = getHeader();
-			for(int i=0; i < size(); i++) {
-				PersistentEntry<E> current = cursor;
-				cursor = cursor.getNext();
-				current.setElement(null);
-				current.setNext(null);
-			}
-			setSize(0);
-		});
+		long stamp = structure.writeLock();
+		try {
+			Transaction.run(() -> {		
+				PersistentEntry<E> cursor = getHeader();
+				for(int i=0; i < size(); i++) {
+					PersistentEntry<E> current = cursor;
+					cursor = cursor.getNext();
+					current.setElement(null);
+					current.setNext(null);
+				}
+				setSize(0);
+			});
+		}
+		finally {
+			structure.unlockWrite(stamp);
+		}
 	}
 	
 
-	public synchronized E get(int index) {
-		if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Correct range of index is [0,Size)");
-				
-		PersistentEntry<E> cursor = traverseToEntryAt(index);
-		return cursor.getElement();
+	public E get(int index) {
+		if (Config.USE_OPTIMISTIC_READS) {
+			long stamp = structure.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					if (index >= 0 && index < size()) {
+						E element = traverseToEntryAt(index).getElement();
+						if (structure.validate(stamp)) return element;
+					}
+				}
+				catch (RuntimeException re) {if (structure.validate(stamp)) throw re;}
+			}
+		}
+		synchronized (this) {
+			if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Correct range of index is [0,Size)");
+
+			PersistentEntry<E> cursor = traverseToEntryAt(index);
+			return cursor.getElement();
+		}
 	}
 	
 	public synchronized void set(int index, E element) {
 		if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Correct range of index is [0,Size)");
 		
-		Transaction.run(() -> {		
-			PersistentEntry<E> cursor = traverseToEntryAt(index);
-			cursor.setElement(element);
-		});
+		long stamp = structure.writeLock();
+		try {
+			Transaction.run(() -> {		
+				PersistentEntry<E> cursor = traverseToEntryAt(index);
+				cursor.setElement(element);
+			});
+		}
+		finally {
+			structure.unlockWrite(stamp);
+		}
 	}
 	
-	public synchronized int size() {
+	public int size() {
 		return getIntField(SIZE);
 	}
 	
@@ -138,7 +185,7 @@ public class PersistentLinkedList<E extends AnyPersistent> extends PersistentObj
 	}
 	
 	@SuppressWarnings("unchecked")
-	private synchronized PersistentEntry<E> getHeader() {
+	private PersistentEntry<E> getHeader() {
 		return getObjectField(HEADER);
 	}
 	
@@ -147,7 +194,7 @@ public class PersistentLinkedList<E extends AnyPersistent> extends PersistentObj
 		setObjectField(HEADER, newHeader);
 	}
 	
-	private synchronized PersistentEntry<E> traverseToEntryAt(int index) {
+	private PersistentEntry<E> traverseToEntryAt(int index) {
 		PersistentEntry<E> cursor = getHeader();
 		for(int i = 0; i < index; i++) cursor = cursor.getNext();
 		return cursor;
@@ -182,7 +229,7 @@ public class PersistentLinkedList<E extends AnyPersistent> extends PersistentObj
 		public PersistentEntry(ObjectPointer<? extends PersistentEntry> p) {super(p);}
 		
 		@SuppressWarnings("unchecked")
-		private synchronized E getElement() {
+		private E getElement() {
 			return (E)getObjectField(ELEMENT);
 		}
 		
@@ -191,7 +238,7 @@ public class PersistentLinkedList<E extends AnyPersistent> extends PersistentObj
 		}
 		
 		@SuppressWarnings("unchecked")
-		private synchronized PersistentEntry<E> getNext() {
+		private PersistentEntry<E> getNext() {
 			return getObjectField(NEXT);
 		}
 		
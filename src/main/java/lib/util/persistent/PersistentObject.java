@@ -46,7 +46,6 @@ import lib.util.persistent.types.FinalDoubleField;
 import lib.util.persistent.types.FinalCharField;
 import lib.util.persistent.types.FinalBooleanField;
 import lib.util.persistent.types.FinalObjectField;
-import java.lang.reflect.Constructor;
 import static lib.util.persistent.Trace.*;
 import java.util.function.Consumer;
 
@@ -78,6 +77,11 @@ public class PersistentObject extends PersistentImmutableObject {
         TransactionInfo info = lib.xpersistent.XTransaction.tlInfo.get();
         boolean inTransaction = info.state == Transaction.State.Active;
         if (!inTransaction) {
+            long stamp = tryOptimisticRead();
+            if (stamp != 0) {
+                ans = pointer.region().getByte(offset);
+                if (validate(stamp)) return ans;
+            }
             monitorEnter();
             ans = pointer.region().getByte(offset);
             monitorExit();
@@ -103,6 +107,11 @@ public class PersistentObject extends PersistentImmutableObject {
         TransactionInfo info = lib.xpersistent.XTransaction.tlInfo.get();
         boolean inTransaction = info.state == Transaction.State.Active;
         if (!inTransaction) {
+            long stamp = tryOptimisticRead();
+            if (stamp != 0) {
+                ans = pointer.region().getShort(offset);
+                if (validate(stamp)) return ans;
+            }
             monitorEnter();
             ans = pointer.region().getShort(offset);
             monitorExit();
@@ -128,6 +137,11 @@ public class PersistentObject extends PersistentImmutableObject {
         TransactionInfo info = lib.xpersistent.XTransaction.tlInfo.get();
         boolean inTransaction = info.state == Transaction.State.Active;
         if (!inTransaction) {
+            long stamp = tryOptimisticRead();
+            if (stamp != 0) {
+                ans = pointer.region().getInt(offset);
+                if (validate(stamp)) return ans;
+            }
             monitorEnter();
             ans = pointer.region().getInt(offset);
             monitorExit();
@@ -154,6 +168,11 @@ public class PersistentObject extends PersistentImmutableObject {
         TransactionInfo info = lib.xpersistent.XTransaction.tlInfo.get();
         boolean inTransaction = info.state == Transaction.State.Active;
         if (!inTransaction) {
+            long stamp = tryOptimisticRead();
+            if (stamp != 0) {
+                ans = pointer.region().getLong(offset);
+                if (validate(stamp)) return ans;
+            }
             monitorEnter();
             ans = pointer.region().getLong(offset);
             monitorExit();
@@ -182,19 +201,24 @@ public class PersistentObject extends PersistentImmutableObject {
             MemoryRegion dstRegion = new VolatileMemoryRegion(type.getSize());
             // trace(true, "getObject (valueBased) src addr = %d, dst  = %s, size = %d", srcRegion.addr(), dstRegion, type.getSize());
             Util.memCopy(getPointer().type(), (ObjectType)type, srcRegion, offset, dstRegion, 0L, type.getSize());
-            T obj = null;
-            try {
-                Constructor ctor = ((ObjectType)type).cls().getDeclaredConstructor(ObjectPointer.class);
-                ctor.setAccessible(true);
-                ObjectPointer p = new ObjectPointer<T>((ObjectType)type, dstRegion);
-                obj = (T)ctor.newInstance(p);
-            }
-            catch (Exception e) {e.printStackTrace();}
-            ans = obj;
+            ans = ((ObjectType<T>)type).newInstance(new ObjectPointer<T>((ObjectType<T>)type, dstRegion));
         }
         else {
             TransactionInfo info = lib.xpersistent.XTransaction.tlInfo.get();
             boolean inTransaction = info.state == Transaction.State.Active;
+            if (!inTransaction) {
+                // unlocked read is only used when the referent is already live in the cache; the second
+                // validate ensures the field still pointed at it while it was looked up
+                long stamp = tryOptimisticRead();
+                if (stamp != 0) {
+                    long valueAddr = pointer.region().getLong(offset);
+                    if (validate(stamp)) {
+                        if (valueAddr == 0) return null;
+                        T obj = ObjectCache.getIfCached(valueAddr);
+                        if (obj != null && validate(stamp)) return obj;
+                    }
+                }
+            }
             boolean success = (inTransaction ? monitorEnterTimeout() : monitorEnterTimeout(5000));
             if (success) {
                 try {
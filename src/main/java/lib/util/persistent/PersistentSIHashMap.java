@@ -590,6 +590,7 @@ public class PersistentSIHashMap<K extends AnyPersistent, V extends AnyPersisten
         // System.out.println("thread " + Thread.currentThread().getId() + " trying to lock parentSlot 0x" + Long.toHexString(parentSlot));
         Transaction.run(() -> {
             // System.out.println("thread " + Thread.currentThread().getId() + " locked parentSlot 0x" + Long.toHexString(parentSlot));
+            ret.set(null);     // a retried attempt must not return the sentinel an aborted one constructed
             Node<K, V> curr = parentSentinel, next = curr.getNext();
             while (true) {
                 if (next != null) {
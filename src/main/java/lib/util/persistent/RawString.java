@@ -23,6 +23,9 @@ package lib.util.persistent;
 
 import lib.util.persistent.spi.PersistentMemoryProvider;
 import lib.util.persistent.types.Types;
+import lib.xpersistent.UncheckedPersistentMemoryRegion;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import static lib.util.persistent.Trace.*;
 
 class RawString {
@@ -69,6 +72,13 @@ class RawString {
 
     private void putString(MemoryRegion region, long offset, String s) {
         byte[] bytes = s.getBytes();
+        if (region instanceof UncheckedPersistentMemoryRegion) {
+            // region was just allocated and is unreachable until published, so persist it in one store
+            ByteBuffer buf = ByteBuffer.allocate((int)Types.INT.getSize() + bytes.length).order(ByteOrder.nativeOrder());
+            buf.putInt(bytes.length).put(bytes);
+            ((UncheckedPersistentMemoryRegion)region).putDurableBytes(offset, buf.array());
+            return;
+        }
         Transaction.run(() -> {
             region.putInt(offset, bytes.length);
             long base = offset + Types.INT.getSize();
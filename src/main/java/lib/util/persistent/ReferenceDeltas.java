@@ -0,0 +1,161 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import java.util.Arrays;
+
+// Reference count changes logged by the open transaction when Config.DEFERRED_REFERENCE_COUNTING is set,
+// coalesced per object and applied just before the transaction commits. Objects are indexed by address
+// in an open-addressing table (linear probing) and applied in the order they were first logged.
+public final class ReferenceDeltas {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private AnyPersistent[] objects = new AnyPersistent[INITIAL_CAPACITY];  // null once applied
+    private int[] increments = new int[INITIAL_CAPACITY];
+    private int[] decrements = new int[INITIAL_CAPACITY];
+    private int size;
+    private long[] keys = new long[INITIAL_CAPACITY * 2];
+    private int[] entries = new int[INITIAL_CAPACITY * 2];
+    private boolean incremented;    // an increment may be pending
+
+    // entryFor may grow the arrays, so it is called before they are read
+    void increment(AnyPersistent obj) {
+        int e = entryFor(obj);
+        increments[e]++;
+        incremented = true;
+    }
+
+    void decrement(AnyPersistent obj) {
+        int e = entryFor(obj);
+        decrements[e]++;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Net increments go first, so no count passes through zero on its way to a larger final value.
+    // An object that lost a reference is a cycle candidate even if it gained one back.
+    public void apply() {
+        for (int start = 0; start < size; ) {
+            int end = size;
+            applyIncrements(start, end);
+            for (int i = start; i < end; i++) {
+                AnyPersistent obj = objects[i];
+                if (obj == null) continue;
+                objects[i] = null;
+                int n = decrements[i] - increments[i];
+                if (n > 0) obj.deleteReferences(n);
+                else if (decrements[i] > 0) CycleCollector.addCandidate(obj.getPointer().addr());
+            }
+            start = end;
+        }
+        clear();
+    }
+
+    // Called before a count may reach zero: the free that follows reads fields this transaction may have
+    // stored already, and every object they point to must have its count first.
+    void applyIncrements() {
+        if (!incremented) return;
+        incremented = false;
+        applyIncrements(0, size);
+    }
+
+    private void applyIncrements(int start, int end) {
+        for (int i = start; i < end; i++) {
+            AnyPersistent obj = objects[i];
+            if (obj != null && increments[i] > decrements[i]) {
+                objects[i] = null;
+                obj.addReferences(increments[i] - decrements[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        if (size > INITIAL_CAPACITY * 4) {
+            objects = new AnyPersistent[INITIAL_CAPACITY];
+            increments = new int[INITIAL_CAPACITY];
+            decrements = new int[INITIAL_CAPACITY];
+            keys = new long[INITIAL_CAPACITY * 2];
+            entries = new int[INITIAL_CAPACITY * 2];
+        }
+        else {
+            Arrays.fill(objects, 0, size, null);
+            Arrays.fill(increments, 0, size, 0);
+            Arrays.fill(decrements, 0, size, 0);
+            Arrays.fill(keys, 0);
+        }
+        size = 0;
+        incremented = false;
+    }
+
+    // an object logged again after its entry was applied gets a new entry
+    private int entryFor(AnyPersistent obj) {
+        long addr = obj.getPointer().addr();
+        int mask = keys.length - 1;
+        int i = slot(addr, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == addr) {
+                int e = entries[i];
+                if (objects[e] != null) return e;
+                return entries[i] = append(obj);
+            }
+            i = (i + 1) & mask;
+        }
+        int e = append(obj);
+        keys[i] = addr;
+        entries[i] = e;
+        if (size * 2 > keys.length) rehash();
+        return e;
+    }
+
+    private int append(AnyPersistent obj) {
+        if (size == objects.length) {
+            objects = Arrays.copyOf(objects, size * 2);
+            increments = Arrays.copyOf(increments, size * 2);
+            decrements = Arrays.copyOf(decrements, size * 2);
+        }
+        objects[size] = obj;
+        return size++;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldEntries = entries;
+        keys = new long[oldKeys.length * 2];
+        entries = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == 0) continue;
+            int i = slot(oldKeys[j], mask);
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            entries[i] = oldEntries[j];
+        }
+    }
+
+    private static int slot(long addr, int mask) {
+        long h = addr * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 32) & mask;
+    }
+}
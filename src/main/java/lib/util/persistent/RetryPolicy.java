@@ -0,0 +1,73 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+// How Transaction.run waits before retrying a top-level transaction that failed to get a lock.
+// Selected at runtime with Config.setRetryPolicy or -Dpcj.retryPolicy=SPIN|PARK|EXPONENTIAL.
+// By the time await is called the failed attempt has released all of its locks, so blocking
+// on the contended object cannot deadlock.
+public enum RetryPolicy {
+    // busy-wait (yielding) until the contended object's lock is seen free
+    SPIN {
+        void await(TransactionInfo info) {
+            AnyPersistent obj = info.contended;
+            if (obj == null) return;
+            long deadline = System.currentTimeMillis() + Config.MAX_RETRY_WAIT_TIME;
+            while (!spin(obj) && System.currentTimeMillis() < deadline) Thread.yield();
+        }
+    },
+
+    // spin briefly, then queue on the contended object's lock and wake when its holder releases it
+    PARK {
+        void await(TransactionInfo info) {
+            AnyPersistent obj = info.contended;
+            if (obj == null || spin(obj)) return;
+            obj.awaitRelease(Config.MAX_RETRY_WAIT_TIME);
+        }
+    },
+
+    // sleep for a randomized, exponentially growing delay
+    EXPONENTIAL {
+        void await(TransactionInfo info) {
+            int sleepTime = info.retryDelay + Util.randomInt(info.retryDelay);
+            info.retryDelay = Math.min((int)(info.retryDelay * Config.TRANSACTION_RETRY_DELAY_INCREASE_FACTOR), Config.MAX_TRANSACTION_RETRY_DELAY);
+            try {Thread.sleep(sleepTime);} catch(InterruptedException ie) {ie.printStackTrace();}
+        }
+    };
+
+    abstract void await(TransactionInfo info);
+
+    // returns true if obj's lock was observed free within RETRY_SPIN_ITERATIONS checks
+    static boolean spin(AnyPersistent obj) {
+        for (int i = 0; i < Config.RETRY_SPIN_ITERATIONS; i++) {
+            if (!obj.isLocked()) return true;
+        }
+        return false;
+    }
+
+    static RetryPolicy fromProperty(String name, RetryPolicy defaultPolicy) {
+        String value = System.getProperty(name);
+        if (value == null) return defaultPolicy;
+        try {return valueOf(value.trim().toUpperCase());}
+        catch (IllegalArgumentException e) {throw new IllegalArgumentException("unknown retry policy " + value + " for " + name);}
+    }
+}
@@ -20,17 +20,29 @@
  */
 
 package lib.util.persistent;
-import lib.xpersistent.XTransaction;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+// Counters are striped (LongAdder / LongAccumulator) so concurrent updates neither contend on one
+// cache line nor get lost; values are summed when read. Updates are a single flag test when disabled.
 public class Stats {
     static boolean enable = false;
     static boolean disableOverride = false;
+    private static boolean on = false;
+    private static boolean registered = false;
     public static Stats current;
 
     public ObjectCacheStats objectCache;
     public MemoryStats memory;
     public TransactionStats transactions;
     public LockStats locks;
+    public LatencyStats latencies;
 
     static {
         current = new Stats();
@@ -41,20 +53,43 @@ public class Stats {
         memory = new MemoryStats();
         transactions = new TransactionStats();
         locks = new LockStats();
+        latencies = new LatencyStats();
      }
 
-    public static void enable(boolean e) {enable = e;}
-    public static void disableOverride(boolean e) {disableOverride = e;}
+    public static void enable(boolean e) {
+        enable = e; 
+        on = enabled();
+        if (e) registerMBean();
+    }
+
+    public static void disableOverride(boolean e) {disableOverride = e; on = enabled();}
 
     public static boolean enabled() {
         return (enable && !disableOverride);
     }
 
+    // start time for LatencyHistogram.recordSince; 0 (nothing recorded) when stats are off
+    public static long nanoTime() {
+        return on ? System.nanoTime() : 0;
+    }
+
+    private static synchronized void registerMBean() {
+        if (registered) return;
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), new ObjectName("lib.util.persistent:type=Stats"));
+        }
+        catch (Exception e) {
+            System.err.println("unable to register Stats MBean: " + e);
+        }
+    }
+
     public void clear() {
         objectCache.clear();
         memory.clear();
         transactions.clear();
         locks.clear();
+        latencies.clear();
     }
 
     public static Stats reset() {
@@ -63,87 +98,142 @@ public class Stats {
         return ans;
     }
 
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {if (on) value.increment();}
+        public void add(long x) {if (on) value.add(x);}
+        public long get() {return value.sum();}
+        public void clear() {value.reset();}
+        public String toString() {return Long.toString(get());}
+    }
+
+    public static final class Max {
+        private final LongAccumulator value = new LongAccumulator(Math::max, 0);
+
+        public void update(long x) {if (on) value.accumulate(x);}
+        public long get() {return value.get();}
+        public void clear() {value.reset();}
+        public String toString() {return Long.toString(get());}
+    }
+
     public static class ObjectCacheStats {
-        public long simpleHits;
-        public long promotedHits;
-        public long simpleMisses;
-        public long referentMisses;
+        public final Counter simpleHits = new Counter();
+        public final Counter promotedHits = new Counter();
+        public final Counter simpleMisses = new Counter();
+        public final Counter referentMisses = new Counter();
+        public final Counter evictions = new Counter();     // bounded cache only
 
-        ObjectCacheStats() {
-            clear();
+        public void clear() {
+            simpleHits.clear();
+            promotedHits.clear();
+            simpleMisses.clear();
+            referentMisses.clear();
+            evictions.clear();
         }
 
-        public void clear() {
-            simpleHits = -1;
-            promotedHits = -1;
-            simpleMisses = -1;
-            referentMisses = -1;    
-        }        
+        public long hits() {return simpleHits.get() + promotedHits.get();}
+        public long misses() {return simpleMisses.get() + referentMisses.get();}
     }
 
     public static class MemoryStats {
-        public long constructions;
-        public long reconstructions;
-        public long enqueued;
-    
-        MemoryStats() {
-            clear();
-        }
+        public final Counter constructions = new Counter();
+        public final Counter reconstructions = new Counter();
+        public final Counter enqueued = new Counter();
 
         public void clear() {
-            constructions = 0;
-            reconstructions = 0;
-            enqueued = 0;        
+            constructions.clear();
+            reconstructions.clear();
+            enqueued.clear();        
         }
     }
 
-
     public static class TransactionStats {
-        public long total = -1;
-        public long topLevel = -1;
-        public long maxDepth = -1;
-        public long totalRetries = 0;
-        private long maxRetries = 0;
-        public long failures = 0;
-
-        TransactionStats() {
-            clear();
-        }
+        public final Counter total = new Counter();
+        public final Counter topLevel = new Counter();
+        public final Max maxDepth = new Max();
+        public final Counter totalRetries = new Counter();
+        public final Max maxRetries = new Max();
+        public final Counter failures = new Counter();
 
         public void clear() {
-            total = -1;
-            topLevel = -1;
-            maxDepth = -1;
-            totalRetries = 0;
-            maxRetries = 0;
-            failures = 0;            
+            total.clear();
+            topLevel.clear();
+            maxDepth.clear();
+            totalRetries.clear();
+            maxRetries.clear();
+            failures.clear();            
         }
 
         public void updateMaxRetries(int retries) {
-            if (retries > maxRetries) maxRetries = retries;
+            maxRetries.update(retries);
         }
     }
 
     public static class LockStats {
-        public long acquired = -1;
-        public long timeouts = -1;
-        public long spinIterations = -1;
+        public final Counter acquired = new Counter();
+        public final Counter timeouts = new Counter();
+        public final Counter spinIterations = new Counter();
+
+        public void clear() {
+            acquired.clear();
+            timeouts.clear();
+            spinIterations.clear();
+        }
+    }
+
+    public static class LatencyStats {
+        public final LatencyHistogram transactions = new LatencyHistogram();   // top-level Transaction.run, all attempts
+        public final LatencyHistogram commits = new LatencyHistogram();        // native end of transaction
+        public final LatencyHistogram retries = new LatencyHistogram();        // retries per top-level transaction
+        private final Map<String, LatencyHistogram> lockWaits = new ConcurrentHashMap<>();
+
+        // lock acquire wait for an object, keyed by its type name
+        public void recordLockWait(AnyPersistent obj, long start) {
+            if (start == 0) return;
+            String type = obj.getPointer().type().getName();
+            LatencyHistogram h = lockWaits.get(type);
+            if (h == null) h = lockWaits.computeIfAbsent(type, k -> new LatencyHistogram());
+            h.recordSince(start);
+        }
 
-        LockStats() {
-            clear();
+        public Map<String, LatencyHistogram.Snapshot> lockWaitSnapshots() {
+            Map<String, LatencyHistogram.Snapshot> ans = new TreeMap<>();
+            lockWaits.forEach((type, h) -> ans.put(type, h.snapshot()));
+            return ans;
         }
 
         public void clear() {
-            acquired = -1;
-            timeouts = - 1;
-            spinIterations = -1;
+            transactions.clear();
+            commits.clear();
+            retries.clear();
+            lockWaits.clear();
         }
     }
 
-    private static String format1 = "%,15d"; 
+    static final class MXBean implements StatsMXBean {
+        public boolean isEnabled() {return enabled();}
+        public void setEnabled(boolean enabled) {enable(enabled);}
+        public void clear() {current.clear();}
+
+        public long getTransactions() {return current.transactions.total.get();}
+        public long getTopLevelTransactions() {return current.transactions.topLevel.get();}
+        public long getRetries() {return current.transactions.totalRetries.get();}
+        public long getFailures() {return current.transactions.failures.get();}
+        public long getLockTimeouts() {return current.locks.timeouts.get();}
+        public long getObjectCacheHits() {return current.objectCache.hits();}
+        public long getObjectCacheMisses() {return current.objectCache.misses();}
+        public long getObjectCacheEvictions() {return current.objectCache.evictions.get();}
+        public int getObjectCacheRetained() {return ObjectCache.retainedCount();}
+
+        public LatencyHistogram.Snapshot getTransactionLatency() {return current.latencies.transactions.snapshot();}
+        public LatencyHistogram.Snapshot getCommitLatency() {return current.latencies.commits.snapshot();}
+        public LatencyHistogram.Snapshot getRetriesPerTransaction() {return current.latencies.retries.snapshot();}
+        public Map<String, LatencyHistogram.Snapshot> getLockWaitLatency() {return current.latencies.lockWaitSnapshots();}
+    }
 
     private static String format(long value) {
-        return String.format(value == -1 ? "%15s" : "%,15d", value == -1 ? "N/A" : value);
+        return String.format("%,15d", value);
     }
 
     public static void printObjectCacheStats() {printObjectCacheStats(current);}
@@ -152,10 +242,11 @@ public class Stats {
         if (!enabled()) return;
         System.out.println("       ObjectCache Stats");
         System.out.println(  "-------------------------------"); 
-        System.out.println("simpleHits     :" + format(stats.objectCache.simpleHits)); 
-        System.out.println("promotedHits   :" + format(stats.objectCache.promotedHits)); 
-        System.out.println("simpleMisses   :" + format(stats.objectCache.simpleMisses)); 
-        System.out.println("referentMisses :" + format(stats.objectCache.referentMisses)); 
+        System.out.println("simpleHits     :" + format(stats.objectCache.simpleHits.get())); 
+        System.out.println("promotedHits   :" + format(stats.objectCache.promotedHits.get())); 
+        System.out.println("simpleMisses   :" + format(stats.objectCache.simpleMisses.get())); 
+        System.out.println("referentMisses :" + format(stats.objectCache.referentMisses.get())); 
+        System.out.println("evictions      :" + format(stats.objectCache.evictions.get())); 
         System.out.println();
     }
 
@@ -165,9 +256,9 @@ public class Stats {
         if (!enabled()) return;
         System.out.println("         Memory Stats");
         System.out.println(  "-------------------------------"); 
-        System.out.println("constructions  :" + format(stats.memory.constructions)); 
-        System.out.println("reconstructions:" + format(stats.memory.reconstructions)); 
-        System.out.println("enqueued       :" + format(stats.memory.enqueued)); 
+        System.out.println("constructions  :" + format(stats.memory.constructions.get())); 
+        System.out.println("reconstructions:" + format(stats.memory.reconstructions.get())); 
+        System.out.println("enqueued       :" + format(stats.memory.enqueued.get())); 
         System.out.println();
     }
 
@@ -177,12 +268,12 @@ public class Stats {
         if (!enabled()) return;
         System.out.println("       Transaction Stats");
         System.out.println(  "-------------------------------");         
-        System.out.println("total          :" + format(stats.transactions.total));
-        System.out.println("topLevel       :" + format(stats.transactions.topLevel));
-        System.out.println("maxDepth       :" + format(stats.transactions.maxDepth));
-        System.out.println("totalRetries   :" + format(stats.transactions.totalRetries));
-        System.out.println("maxRetries     :" + format(stats.transactions.maxRetries));
-        System.out.println("failures       :" + format(stats.transactions.failures));
+        System.out.println("total          :" + format(stats.transactions.total.get()));
+        System.out.println("topLevel       :" + format(stats.transactions.topLevel.get()));
+        System.out.println("maxDepth       :" + format(stats.transactions.maxDepth.get()));
+        System.out.println("totalRetries   :" + format(stats.transactions.totalRetries.get()));
+        System.out.println("maxRetries     :" + format(stats.transactions.maxRetries.get()));
+        System.out.println("failures       :" + format(stats.transactions.failures.get()));
         System.out.println();
     }
 
@@ -192,9 +283,22 @@ public class Stats {
         if (!enabled()) return;
         System.out.println("          Lock Stats");
         System.out.println(  "-------------------------------");         
-        System.out.println("aquired        :" + format(stats.locks.acquired));
-        System.out.println("timeouts       :" + format(stats.locks.timeouts));
-        System.out.println("spinIterations :" + format(stats.locks.spinIterations));
+        System.out.println("aquired        :" + format(stats.locks.acquired.get()));
+        System.out.println("timeouts       :" + format(stats.locks.timeouts.get()));
+        System.out.println("spinIterations :" + format(stats.locks.spinIterations.get()));
+        System.out.println();
+    }
+
+    public static void printLatencyStats() {printLatencyStats(current);}
+
+    public static void printLatencyStats(Stats stats) {
+        if (!enabled()) return;
+        System.out.println("       Latency Stats (ns)");
+        System.out.println(  "-------------------------------");         
+        System.out.println("transaction    : " + stats.latencies.transactions.snapshot());
+        System.out.println("commit         : " + stats.latencies.commits.snapshot());
+        System.out.println("retries        : " + stats.latencies.retries.snapshot());
+        stats.latencies.lockWaitSnapshots().forEach((type, s) -> System.out.println("lock wait      : " + type + " " + s));
         System.out.println();
     }
 
@@ -207,10 +311,11 @@ public class Stats {
         if (header != null) {
             System.out.format("\n======= %s ===========\n\n", header); 
         }
-        // printObjectCacheStats(stats);
+        printObjectCacheStats(stats);
         printMemoryStats(stats);
         printTransactionStats(stats);
-        // printLockStats(stats);
+        printLockStats(stats);
+        printLatencyStats(stats);
         System.out.println();
     }        
-}
\ No newline at end of file
+}
@@ -46,13 +46,16 @@ public interface Transaction extends AutoCloseable {
     public static void run(PersistentMemoryProvider provider, Update update, AnyPersistent... toLock) {
         boolean success = false;
         TransactionInfo info = XTransaction.tlInfo.get();
+        boolean topLevel = info.depth == 0;
+        long startTime = topLevel ? Stats.nanoTime() : 0;
+        if (topLevel) info.resetRetries();   // one that failed leaves its count behind
         while (!success && info.attempts <= Config.MAX_TRANSACTION_ATTEMPTS) {
             Transaction t = provider.newTransaction();
             // for stats
-            Stats.current.transactions.total++;
+            Stats.current.transactions.total.increment();
             int currentDepth = info.depth;
-            if (currentDepth == 1) Stats.current.transactions.topLevel++;
-            Stats.current.transactions.maxDepth = Math.max(Stats.current.transactions.maxDepth, currentDepth);
+            if (currentDepth == 1) Stats.current.transactions.topLevel.increment();
+            Stats.current.transactions.maxDepth.update(currentDepth);
             // end for stats
             try {
                 boolean block = Config.BLOCK_ON_MAX_TRANSACTION_ATTEMPTS && info.attempts == Config.MAX_TRANSACTION_ATTEMPTS;
@@ -75,18 +78,19 @@ public interface Transaction extends AutoCloseable {
             }
             if (!success) {
                 info.attempts++;     
-                Stats.current.transactions.totalRetries++;
+                Stats.current.transactions.totalRetries.increment();
                 Stats.current.transactions.updateMaxRetries(info.attempts - 1);
-                int sleepTime = info.retryDelay + Util.randomInt(info.retryDelay);
-                // trace(true, "old retryDelay = %d, new retryDelay = %d", info.retryDelay, Math.min((int)(info.retryDelay * Config.TRANSACTION_RETRY_DELAY_INCREASE_FACTOR), Config.MAX_TRANSACTION_RETRY_DELAY)); 
-                info.retryDelay = Math.min((int)(info.retryDelay * Config.TRANSACTION_RETRY_DELAY_INCREASE_FACTOR), Config.MAX_TRANSACTION_RETRY_DELAY);
-                // trace("retry #%d, sleepTime = %d", info.attempts - 1, sleepTime);
-                try {Thread.sleep(sleepTime);} catch(InterruptedException ie) {ie.printStackTrace();}
+                // trace("retry #%d, policy = %s", info.attempts - 1, Config.getRetryPolicy());
+                Config.getRetryPolicy().await(info);
             }
         }
         // trace(true, "after while, depth = %d, success = %s, attempts = %d",  info.depth, success,  info.attempts);
+        if (startTime != 0) {
+            Stats.current.latencies.transactions.recordSince(startTime);
+            Stats.current.latencies.retries.record(info.attempts - 1);
+        }
         if (!success) {
-            Stats.current.transactions.failures++;
+            Stats.current.transactions.failures.increment();
             trace(true, "failed transaction");
             RuntimeException e = new TransactionException(String.format("failed to execute transaction after %d attempts", info.attempts));            
             if (Config.EXIT_ON_TRANSACTION_FAILURE) {
@@ -98,10 +102,8 @@ public interface Transaction extends AutoCloseable {
         }
         else {
             // trace(true, "transaction success, attempts = %d, depth = %d",info.attempts, info.depth);
-            if (info.depth == 1) {
-                info.attempts = 1;
-                info.retryDelay = Config.BASE_TRANSACTION_RETRY_DELAY;
-            }
+            if (topLevel) info.resetRetries();
+            if (topLevel && info.unfreed != 0) AnyPersistent.freeLater(info);
         }
     }
 
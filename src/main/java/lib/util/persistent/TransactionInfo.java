@@ -23,6 +23,8 @@ package lib.util.persistent;
 
 import lib.util.persistent.AnyPersistent;
 import lib.xpersistent.XTransaction;
+import lib.xpersistent.SnapshotRanges;
+import lib.xpersistent.SlabArena;
 import java.util.ArrayList;
 import static lib.util.persistent.Trace.trace;
 
@@ -31,10 +33,22 @@ public class TransactionInfo {
     public Transaction.State state;
     public int depth;
     public ArrayList<AnyPersistent> locked;
+    public long highestLocked;          // highest address in locked, Long.MIN_VALUE if none
     public ArrayList<AnyPersistent> constructions;
+    public ArrayList<AnyPersistent> freed;    // cached instances of objects freed by the open transaction
     public int attempts;
     public int timeout;
     public int retryDelay;
+    public SnapshotRanges snapshots;
+    public AnyPersistent contended;     // last object this thread timed out locking
+    public SlabArena.SlotList claimedSlots;   // arena slots allocated / freed by the open transaction
+    public SlabArena.SlotList freedSlots;
+    public HeapStats.Pending heapChanges;     // applied to HeapStats.current on commit
+    public ReferenceDeltas referenceDeltas;   // applied before commit in deferred reference counting mode
+    public long unfreed;                // head of the dead objects queued by the open transaction, 0 if none
+    public int freeCount;               // objects freed by the open transaction
+    public boolean draining;            // freeing a list recorded in the root
+    public ArrayList<Runnable> sentinels;     // hash map sentinels, set in their slots on commit
 
     public TransactionInfo() {
         init();
@@ -45,9 +59,28 @@ public class TransactionInfo {
         state = Transaction.State.None;
         depth = 0;
         locked  = new ArrayList<AnyPersistent>();
+        highestLocked = Long.MIN_VALUE;
         constructions = new ArrayList<AnyPersistent>();
+        freed = new ArrayList<AnyPersistent>();
         attempts = 1;
         timeout = Config.MONITOR_ENTER_TIMEOUT;
         retryDelay = Config.BASE_TRANSACTION_RETRY_DELAY;
+        snapshots = new SnapshotRanges();
+        contended = null;
+        claimedSlots = new SlabArena.SlotList();
+        freedSlots = new SlabArena.SlotList();
+        heapChanges = new HeapStats.Pending();
+        referenceDeltas = new ReferenceDeltas();
+        unfreed = 0;
+        freeCount = 0;
+        draining = false;
+        sentinels = new ArrayList<Runnable>();
    }
+
+    // retries are counted per top-level transaction
+    public void resetRetries() {
+        attempts = 1;
+        retryDelay = Config.BASE_TRANSACTION_RETRY_DELAY;
+        contended = null;
+    }
 }
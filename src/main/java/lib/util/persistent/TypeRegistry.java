@@ -0,0 +1,174 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent;
+
+import lib.util.persistent.spi.PersistentMemoryProvider;
+import lib.util.persistent.types.ObjectType;
+import lib.util.persistent.types.Types;
+import lib.xpersistent.UncheckedPersistentMemoryRegion;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Persistent table of type names; object headers store a type's index here (its id) instead of
+// the address of a per-object name string. The table is one raw region, referenced from the root:
+//     [count][capacity][RawString address] * capacity
+// with id = index + 1, so a zero header never names a type. Entries are only ever appended.
+//
+// A new type is registered in its own top-level transaction on a dedicated thread, like arena
+// chunk allocation: the caller may be inside a transaction that later aborts, and the id must not
+// roll back once other threads can have seen it.
+public final class TypeRegistry {
+    private static final long COUNT = 0;
+    private static final long CAPACITY = 8;
+    private static final long ENTRIES = 16;
+    private static final long INITIAL_CAPACITY = 64;
+
+    private static volatile TypeRegistry instance;
+
+    private final MemoryRegion root;
+    private final long rootSlot;
+    private volatile MemoryRegion table;
+    private volatile String[] names;                        // by id
+    private volatile ObjectType<?>[] types;                 // by id, resolved on first use
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ExecutorService registrar = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "TypeRegistry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private TypeRegistry(MemoryRegion root, long rootSlot) {
+        this.root = root;
+        this.rootSlot = rootSlot;
+        long addr = root.getLong(rootSlot);
+        if (addr == 0) {
+            addr = submit(() -> {
+                Box<Long> box = new Box<>();
+                Transaction.run(() -> {
+                    MemoryRegion t = heap().allocateRegion(ENTRIES + INITIAL_CAPACITY * 8);
+                    t.putLong(CAPACITY, INITIAL_CAPACITY);
+                    root.putLong(rootSlot, t.addr());
+                    box.set(t.addr());
+                });
+                return box.get();
+            });
+        }
+        this.table = new UncheckedPersistentMemoryRegion(addr);
+        int count = (int)table.getLong(COUNT);
+        String[] n = new String[count + 1];
+        for (int i = 0; i < count; i++) {
+            n[i + 1] = new RawString(new UncheckedPersistentMemoryRegion(table.getLong(ENTRIES + i * 8))).toString();
+            ids.put(n[i + 1], i + 1);
+        }
+        this.names = n;
+        this.types = new ObjectType<?>[n.length];
+    }
+
+    // called by the root while the heap opens, before any object is constructed
+    public static void open(MemoryRegion root, long rootSlot) {
+        instance = new TypeRegistry(root, rootSlot);
+    }
+
+    static TypeRegistry get() {
+        return instance;
+    }
+
+    private static PersistentHeap heap() {
+        return PersistentMemoryProvider.getDefaultProvider().getHeap();
+    }
+
+    private <T> T submit(java.util.concurrent.Callable<T> task) {
+        try {
+            return registrar.submit(task).get();
+        }
+        catch (Exception e) {
+            throw new PersistenceException("failed to update type registry: " + e);
+        }
+    }
+
+    int idFor(ObjectType<?> type) {
+        Integer id = ids.get(type.getName());
+        return id != null ? id : register(type.getName());
+    }
+
+    private synchronized int register(String name) {
+        Integer existing = ids.get(name);
+        if (existing != null) return existing;
+        int id = submit(() -> {
+            Transaction.run(() -> {
+                MemoryRegion t = table;
+                long count = t.getLong(COUNT);
+                long capacity = t.getLong(CAPACITY);
+                if (count == capacity) {
+                    MemoryRegion bigger = heap().allocateRegion(ENTRIES + capacity * 2 * 8);
+                    for (long i = 0; i < count; i++) bigger.putLong(ENTRIES + i * 8, t.getLong(ENTRIES + i * 8));
+                    bigger.putLong(CAPACITY, capacity * 2);
+                    root.putLong(rootSlot, bigger.addr());
+                    heap().freeRegion(t);
+                    t = bigger;
+                }
+                t.putLong(ENTRIES + count * 8, new RawString(name).getRegion().addr());
+                t.putLong(COUNT, count + 1);
+                table = t;
+            });
+            return (int)table.getLong(COUNT);
+        });
+        String[] n = Arrays.copyOf(names, id + 1);
+        n[id] = name;
+        ObjectType<?>[] ts = Arrays.copyOf(types, id + 1);
+        names = n;
+        types = ts;
+        ids.put(name, id);
+        return id;
+    }
+
+    String nameFor(long id) {
+        String[] n = names;
+        if (id <= 0 || id >= n.length || n[(int)id] == null) throw new PersistenceException("unknown type id " + id);
+        return n[(int)id];
+    }
+
+    // Loads and initializes the class of every registered type on the calling thread. A type whose class
+    // is gone is left for whoever meets an object of it.
+    void resolveAll() {
+        String[] n = names;
+        for (int id = 1; id < n.length; id++) {
+            if (n[id] == null) continue;
+            try {typeFor(id);}
+            catch (RuntimeException e) {}
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends AnyPersistent> ObjectType<T> typeFor(long id) {
+        ObjectType<?>[] ts = types;
+        ObjectType<?> type = id > 0 && id < ts.length ? ts[(int)id] : null;
+        if (type == null) {
+            type = Types.typeForName(nameFor(id));
+            ts = types;
+            if (id < ts.length) ts[(int)id] = type;     // benign race: every thread resolves the same type
+        }
+        return (ObjectType<T>)type;
+    }
+}
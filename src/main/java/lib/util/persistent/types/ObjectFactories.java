@@ -0,0 +1,111 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.util.persistent.types;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.Function;
+import lib.util.persistent.AnyPersistent;
+import lib.util.persistent.ObjectPointer;
+
+// Builds the (ObjectPointer) constructor call used to rehydrate objects. LambdaMetafactory spins a
+// Function that invokes the constructor directly, as Foo::new would inside Foo, so JIT-compiled
+// callers pay a plain call. Persistent classes usually keep that constructor private, which needs
+// a lookup with private access to the class; if one can't be had, a cached reflective constructor
+// is used instead.
+final class ObjectFactories {
+    private static final MethodHandles.Lookup TRUSTED = trustedLookup();
+
+    private ObjectFactories() {}
+
+    private static MethodHandles.Lookup trustedLookup() {
+        try {
+            Field f = MethodHandles.Lookup.class.getDeclaredField("IMPL_LOOKUP");
+            f.setAccessible(true);
+            return (MethodHandles.Lookup)f.get(null);
+        }
+        catch (ReflectiveOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    static <T extends AnyPersistent> Function<ObjectPointer<T>, T> forClass(Class<T> cls) {
+        if (TRUSTED != null) {
+            try {
+                return generated(cls);
+            }
+            catch (ReflectiveOperationException | LambdaConversionException e) {
+                // fall through to reflection
+            }
+        }
+        return reflective(cls);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends AnyPersistent> Function<ObjectPointer<T>, T> generated(Class<T> cls) throws ReflectiveOperationException, LambdaConversionException {
+        MethodHandles.Lookup lookup = TRUSTED.in(cls);
+        MethodHandle ctor = lookup.findConstructor(cls, MethodType.methodType(void.class, ObjectPointer.class));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+            MethodType.methodType(Object.class, Object.class), ctor, MethodType.methodType(cls, ObjectPointer.class));
+        try {
+            return (Function<ObjectPointer<T>, T>)site.getTarget().invoke();
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new AssertionError(t);    // the factory captures nothing and declares no exceptions
+        }
+    }
+
+    private static <T extends AnyPersistent> Function<ObjectPointer<T>, T> reflective(Class<T> cls) {
+        Constructor<T> ctor;
+        try {
+            ctor = cls.getDeclaredConstructor(ObjectPointer.class);
+            ctor.setAccessible(true);
+        }
+        catch (NoSuchMethodException e) {
+            throw new RuntimeException("no (ObjectPointer) constructor in " + cls);
+        }
+        return p -> {
+            try {
+                return ctor.newInstance(p);
+            }
+            catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                if (cause instanceof Error) throw (Error)cause;
+                throw new RuntimeException("failed to call reflected constructor " + cause);
+            }
+            catch (InstantiationException | IllegalAccessException e) {
+                throw new RuntimeException("failed to call reflected constructor " + e);
+            }
+        };
+    }
+}
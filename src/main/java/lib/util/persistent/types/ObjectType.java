@@ -28,7 +28,9 @@ import lib.util.persistent.AnyPersistent;
 import lib.util.persistent.ObjectDirectory;
 import lib.util.persistent.PersistentString;
 import lib.util.persistent.Header;
+import lib.util.persistent.ObjectPointer;
 import java.lang.reflect.Field;
+import java.util.function.Function;
 import static lib.util.persistent.Trace.*;
 
 public class ObjectType<T extends AnyPersistent> implements Named, Container {
@@ -41,6 +43,7 @@ public class ObjectType<T extends AnyPersistent> implements Named, Container {
     private int baseIndex;
     private AnyPersistent statics;
     private boolean valueBased;
+    private volatile Function<ObjectPointer<T>, T> factory;
 
     private ObjectType(Class<T> cls, List<PersistentType> declaredTypes) {
         this.cls = cls;
@@ -79,6 +82,20 @@ public class ObjectType<T extends AnyPersistent> implements Named, Container {
 
     public boolean isValueBased() {return valueBased;}
 
+    // Registers how instances are rebuilt from a pointer, e.g. TYPE = ObjectType.withFields(...).withFactory(Foo::new);
+    // otherwise a factory for the class's (ObjectPointer) constructor is generated on first use.
+    public ObjectType<T> withFactory(Function<ObjectPointer<T>, T> factory) {
+        this.factory = factory;
+        return this;
+    }
+
+    // the object at p, built by its (ObjectPointer) constructor
+    public T newInstance(ObjectPointer<T> p) {
+        Function<ObjectPointer<T>, T> f = factory;
+        if (f == null) factory = f = ObjectFactories.forClass(cls);
+        return f.apply(p);
+    }
+
     // orig name
     public static <U extends AnyPersistent> ObjectType<U> fromFields(Class<U> cls, PersistentField... fs) {
         return withFields(cls, fs);
@@ -23,6 +23,7 @@ package lib.util.persistent.types;
 
 import lib.util.persistent.AnyPersistent;
 import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Types {
 
@@ -40,9 +41,31 @@ public class Types {
     public static final String TYPE_FIELD_NAME = "TYPE";
     public static final String OLD_TYPE_FIELD_NAME = "type";
 
-    @SuppressWarnings("unchecked")
-    public static synchronized <T extends AnyPersistent> PersistentType typeForClass(Class<T> cls) {
+    // Both lookups are cached without locking. Per-class entries live in a ClassValue so they go away
+    // with the class's loader; only non-null results are kept, since a class's TYPE field is still
+    // null while its static initializer runs (e.g. for mutually recursive field types).
+    private static final ClassValue<TypeHolder> byClass = new ClassValue<TypeHolder>() {
+        @Override protected TypeHolder computeValue(Class<?> cls) {return new TypeHolder();}
+    };
+    // names resolve through this class's loader, whose classes outlive it anyway
+    private static final ConcurrentHashMap<String, ObjectType<?>> byName = new ConcurrentHashMap<>();
+
+    private static final class TypeHolder {
+        volatile PersistentType type;
+    }
+
+    public static <T extends AnyPersistent> PersistentType typeForClass(Class<T> cls) {
         if (cls == AnyPersistent.class) return null;
+        TypeHolder holder = byClass.get(cls);
+        PersistentType type = holder.type;
+        if (type == null) {
+            type = lookupType(cls);
+            holder.type = type;
+        }
+        return type;
+    }
+
+    private static PersistentType lookupType(Class<?> cls) {
         try {
             Field typeField = null;
             // TODO: remove inner try and catch when old name gone
@@ -53,9 +76,7 @@ public class Types {
                 typeField = cls.getDeclaredField(OLD_TYPE_FIELD_NAME);
             }
             typeField.setAccessible(true);
-            PersistentType type = (PersistentType)typeField.get(null);
-            typeField.setAccessible(false);
-            return type;
+            return (PersistentType)typeField.get(null);
         } 
         catch (NoSuchFieldException e) {throw new RuntimeException("no type field in " + cls);}
         catch (IllegalAccessException e) {throw new RuntimeException("illegal access on type field in " + cls);}
@@ -67,10 +88,14 @@ public class Types {
     }
 
     @SuppressWarnings("unchecked")
-    public static synchronized <T extends AnyPersistent> ObjectType<T> typeForName(String name) {
+    public static <T extends AnyPersistent> ObjectType<T> typeForName(String name) {
+        ObjectType<?> type = byName.get(name);
+        if (type != null) return (ObjectType<T>)type;
         try {
             Class<T> cls = (Class<T>)Class.forName(name);
-            return objectTypeForClass(cls);
+            ObjectType<T> ans = objectTypeForClass(cls);
+            if (ans != null) byName.putIfAbsent(name, ans);
+            return ans;
         } 
         catch (ClassNotFoundException e) {throw new RuntimeException("class not found for name " + name);}
     }
@@ -0,0 +1,617 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.xpersistent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lib.util.persistent.PersistenceException;
+import lib.util.persistent.Trace;
+import lib.util.persistent.TransactionRetryException;
+import sun.misc.Unsafe;
+
+// Pure-Java pool backend over a memory-mapped file, for machines without PMDK (tmpfs, SSD).
+// Selected with -Dpcj.pool.backend=mapped; it stands in for the JNI calls of XHeap, XTransaction,
+// XRoot and UncheckedPersistentMemoryRegion and keeps the same offset-based addressing, so all
+// collections run unchanged. Durability comes from MappedByteBuffer.force(), which -Dpcj.pool.sync=false
+// skips (fine for tmpfs, where nothing survives a reboot anyway). Java 8 limits a mapping to 2 GB.
+//
+// file:  [header 4K][undo lanes][heap blocks...]
+// lane:  [seq][entry]...        entry: [seq][addr][len][checksum][old bytes, padded to 8]
+// block: [size][type][data...]  type 0 marks a free block, whose first data word links its bin
+//
+// Transactions use undo logging: the old bytes of every range are logged (one force) before it is
+// written in place; commit forces the data and then retires the lane's entries by bumping its seq.
+// Entries are only valid with the lane's current seq and a matching checksum, so recovery rolls
+// back exactly the ranges of transactions that did not commit.
+//
+// The allocator is shared, so its changes go through a lane of its own and commit at once rather
+// than with the caller. The caller's lane records intents instead: each block it allocates (written
+// before the allocation commits) and each block it frees. Frees are applied after a COMMIT entry has
+// been forced and before the lane retires, under the allocator lock, so nothing else can reuse one in
+// between. Recovery frees the blocks a transaction that did not commit had allocated, and finishes
+// the frees of one that committed; in both cases only blocks still allocated, so it can be repeated.
+@SuppressWarnings("sunapi")
+final class MappedPool {
+    static final boolean SELECTED = "mapped".equals(System.getProperty("pcj.pool.backend"));
+    static volatile MappedPool instance;
+
+    static final long CHAR_TYPE = 1017;     // type numbers as in persistent_structs.h
+    static final long CHUNK_TYPE = 1021;
+    static final long ROOT_TYPE = 1;
+    static final long LOG_TYPE = 2;
+
+    private static final long MAGIC = 0x50434a4d41505031L;
+    private static final long HEADER_SIZE = 4096;
+    private static final long ROOT_OFFSET = 16;
+    private static final long HEAP_TOP = 24;
+    private static final long BINS = 64;
+    private static final int MIN_BLOCK_SHIFT = 5;
+    private static final int NUM_BINS = 40;
+    private static final int LANES = 64;
+    private static final long LANE_SIZE = 1 << 20;
+    private static final long LANES_START = HEADER_SIZE;
+    private static final long HEAP_START = LANES_START + LANES * LANE_SIZE;
+    private static final long BLOCK_HEADER = 16;
+    private static final long ENTRY_HEADER = 32;
+    private static final long LINK = -1;      // entry address marking a link to an overflow segment
+    private static final long ALLOC = -2;     // entry addresses marking intents, the block in the length word
+    private static final long FREE = -3;
+    private static final long COMMIT = -4;
+
+    private static final Unsafe UNSAFE;
+    private static final long BYTE_ARRAY_OFFSET;
+
+    static {
+        try {
+            java.lang.reflect.Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe)f.get(null);
+            BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Unable to initialize UNSAFE.");
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final long base;
+    private final long size;
+    private final boolean sync;
+    private final Lane allocatorLane;
+    private final BlockingQueue<Lane> lanes = new ArrayBlockingQueue<>(LANES);
+    private final ThreadLocal<Tx> txs = ThreadLocal.withInitial(Tx::new);
+    private long freeListBytes;     // bytes in free blocks, guarded by allocatorLane
+
+    private MappedPool(String path, long size) throws IOException {
+        File f = new File(path);
+        boolean create = !f.exists() || f.length() == 0;
+        this.file = new RandomAccessFile(f, "rw");
+        if (create) {
+            if (size <= HEAP_START) throw new PersistenceException("pool size too small: " + size);
+            file.setLength(size);
+        }
+        this.size = file.length();
+        if (this.size > Integer.MAX_VALUE) throw new PersistenceException("mapped pools are limited to 2 GB: " + path);
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.size);
+        this.base = ((sun.nio.ch.DirectBuffer)buffer).address();
+        this.sync = !"false".equals(System.getProperty("pcj.pool.sync"));
+        if (create) {
+            putLong(8, this.size);
+            putLong(HEAP_TOP, HEAP_START);
+            persist();
+            putLong(0, MAGIC);
+            persist();
+        }
+        else if (getLong(0) != MAGIC) throw new PersistenceException("not a mapped pool: " + path);
+        this.allocatorLane = new Lane(0);
+        for (int i = 1; i < LANES; i++) lanes.add(new Lane(i));
+        allocatorLane.recover();
+        for (Lane lane : lanes) lane.recover();
+        SlabArena.SlotList segments = new SlabArena.SlotList();
+        for (long addr = next(0, LOG_TYPE); addr != 0; addr = next(addr, LOG_TYPE)) segments.add(addr);
+        for (int i = 0; i < segments.size(); i++) freeNow(segments.get(i));
+        freeListBytes = 0;      // counted afresh, recovery's frees included
+        for (long block = HEAP_START, top = getLong(HEAP_TOP); block < top; block += getLong(block)) {
+            if (getLong(block + 8) == 0) freeListBytes += getLong(block);
+        }
+    }
+
+    static MappedPool open(String path, long size) {
+        try {
+            MappedPool pool = new MappedPool(path, size);
+            instance = pool;
+            return pool;
+        }
+        catch (IOException e) {
+            throw new PersistenceException("Encountered error opening pool " + path + ": " + e);
+        }
+    }
+
+    void close() {
+        instance = null;
+        buffer.force();
+        try {file.close();} catch (IOException e) {Trace.trace(true, "error closing pool: %s", e);}
+    }
+
+    long address() {return base;}
+
+    private long getLong(long offset) {return UNSAFE.getLong(base + offset);}
+    private void putLong(long offset, long value) {UNSAFE.putLong(base + offset, value);}
+
+    private void persist() {
+        if (sync) buffer.force();
+    }
+
+    // ---- transactions ----
+
+    private static final class Tx {
+        int depth;
+        Lane lane;
+        SlabArena.SlotList allocated = new SlabArena.SlotList();  // undone if the transaction aborts
+        SlabArena.SlotList freed = new SlabArena.SlotList();      // applied when it commits
+    }
+
+    void begin() {
+        Tx tx = txs.get();
+        if (tx.depth++ == 0) {
+            try {
+                tx.lane = lanes.take();
+            }
+            catch (InterruptedException e) {
+                tx.depth--;
+                throw new PersistenceException("interrupted waiting for a transaction lane");
+            }
+        }
+    }
+
+    // XTransaction takes a lane once it holds its first locks, so it gives up after timeout ms and retries
+    // rather than wait on lane holders that may be waiting on those locks
+    void begin(long timeout) {
+        Tx tx = txs.get();
+        if (tx.depth == 0) {
+            Lane lane;
+            try {
+                lane = lanes.poll(timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                throw new PersistenceException("interrupted waiting for a transaction lane");
+            }
+            if (lane == null) throw new TransactionRetryException("failed to get a transaction lane");
+            tx.lane = lane;
+        }
+        tx.depth++;
+    }
+
+    void end() {
+        Tx tx = txs.get();
+        if (tx.depth == 0) return;
+        if (--tx.depth == 0) {
+            if (tx.freed.size() == 0) tx.lane.commit();
+            else {
+                for (int i = 0; i < tx.freed.size(); i++) tx.lane.note(FREE, tx.freed.get(i));
+                persist();
+                synchronized (allocatorLane) {
+                    tx.lane.note(COMMIT, 0);
+                    persist();
+                    for (int i = 0; i < tx.freed.size(); i++) freeNow(tx.freed.get(i));
+                    tx.lane.retire();
+                }
+            }
+            finish(tx);
+        }
+    }
+
+    // like pmemobj, an abort at any depth aborts the whole transaction
+    void abort() {
+        Tx tx = txs.get();
+        if (tx.depth == 0) return;
+        tx.depth = 0;
+        tx.lane.undo();
+        synchronized (allocatorLane) {
+            for (int i = 0; i < tx.allocated.size(); i++) freeNow(tx.allocated.get(i));
+            tx.lane.retire();
+        }
+        finish(tx);
+    }
+
+    private void finish(Tx tx) {
+        tx.allocated.clear();
+        tx.freed.clear();
+        lanes.add(tx.lane);
+        tx.lane = null;
+    }
+
+    void addRange(long address, long length) {
+        Tx tx = txs.get();
+        if (tx.depth == 0) throw new PersistenceException("addRange outside of a transaction");
+        tx.lane.log(address, length);
+    }
+
+    // a store that is its own transaction unless one is already open on this thread
+    void putLong(long address, long value, int size) {
+        begin();
+        try {
+            addRange(address, size);
+            putBits(address, value, size);
+        }
+        catch (RuntimeException e) {
+            abort();
+            throw e;
+        }
+        end();
+    }
+
+    long getLong(long address, int size) {
+        switch (size) {
+            case 1: return UNSAFE.getByte(base + address);
+            case 2: return UNSAFE.getShort(base + address);
+            case 4: return UNSAFE.getInt(base + address);
+            default: return UNSAFE.getLong(base + address);
+        }
+    }
+
+    private void putBits(long address, long value, int size) {
+        switch (size) {
+            case 1: UNSAFE.putByte(base + address, (byte)value); break;
+            case 2: UNSAFE.putShort(base + address, (short)value); break;
+            case 4: UNSAFE.putInt(base + address, (int)value); break;
+            default: UNSAFE.putLong(base + address, value);
+        }
+    }
+
+    void putLongDurable(long address, long value, int size) {
+        putBits(address, value, size);
+        persist();
+    }
+
+    void putBytesDurable(long address, byte[] bytes, int length) {
+        UNSAFE.copyMemory(bytes, BYTE_ARRAY_OFFSET, null, base + address, length);
+        persist();
+    }
+
+    void memcpy(long src, long dest, long length) {
+        begin();
+        try {
+            addRange(dest, length);
+            UNSAFE.copyMemory(base + src, base + dest, length);
+        }
+        catch (RuntimeException e) {
+            abort();
+            throw e;
+        }
+        end();
+    }
+
+    void toByteArray(long src, byte[] dest, int offset, int length) {
+        UNSAFE.copyMemory(null, base + src, dest, BYTE_ARRAY_OFFSET + offset, length);
+    }
+
+    void fromByteArray(byte[] src, int offset, long dest, int length) {
+        begin();
+        try {
+            addRange(dest, length);
+            UNSAFE.copyMemory(src, BYTE_ARRAY_OFFSET + offset, null, base + dest, length);
+        }
+        catch (RuntimeException e) {
+            abort();
+            throw e;
+        }
+        end();
+    }
+
+    private final class Lane {
+        final long start;
+        long seq;
+        long pos;       // pool offset of the next entry
+        long limit;     // end of the current segment, less room for a link entry
+        final SlabArena.SlotList entries = new SlabArena.SlotList();
+        final SlabArena.SlotList segments = new SlabArena.SlotList();
+        boolean noted;  // intents written since the lane last retired
+
+        Lane(int index) {
+            this.start = LANES_START + index * LANE_SIZE;
+            this.seq = getLong(start);
+            reset();
+        }
+
+        private void reset() {
+            pos = start + 8;
+            limit = start + LANE_SIZE - ENTRY_HEADER;
+            entries.clear();
+            noted = false;
+        }
+
+        void log(long address, long length) {
+            long padded = (length + 7) & ~7L;
+            if (pos + ENTRY_HEADER + padded > limit) extend(ENTRY_HEADER + padded);
+            long entry = pos;
+            UNSAFE.copyMemory(base + address, base + entry + ENTRY_HEADER, length);
+            putLong(entry, seq);
+            putLong(entry + 8, address);
+            putLong(entry + 16, length);
+            putLong(entry + 24, checksum(entry, padded));
+            entries.add(entry);
+            pos += ENTRY_HEADER + padded;
+            putLong(pos, 0);    // ends a scan even over a torn neighbor
+            persist();
+        }
+
+        // writes an intent entry, unforced; once there is room for one, it does not allocate
+        void note(long kind, long block) {
+            reserve();
+            putLong(pos, seq);
+            putLong(pos + 8, kind);
+            putLong(pos + 16, block);
+            putLong(pos + 24, checksum(pos, 0));
+            pos += ENTRY_HEADER;
+            putLong(pos, 0);
+            noted = true;
+        }
+
+        void reserve() {
+            if (pos + ENTRY_HEADER > limit) extend(ENTRY_HEADER);
+        }
+
+        // continues the log in an overflow segment from the heap, linked from the current one;
+        // like pmemobj's log, a transaction's undo log is bounded only by the pool
+        private void extend(long needed) {
+            long size = Math.max(LANE_SIZE, needed + 2 * ENTRY_HEADER);
+            long segment = allocateBlock(size, LOG_TYPE, null);
+            putLong(pos, seq);
+            putLong(pos + 8, LINK);
+            putLong(pos + 16, segment);
+            putLong(pos + 24, checksum(pos, 0));
+            persist();
+            segments.add(segment);
+            pos = segment;
+            limit = segment + size - ENTRY_HEADER;
+        }
+
+        void commit() {
+            if (entries.size() == 0 && !noted) return;
+            persist();
+            retire();
+        }
+
+        void undo() {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                long entry = entries.get(i);
+                UNSAFE.copyMemory(base + entry + ENTRY_HEADER, base + getLong(entry + 8), getLong(entry + 16));
+            }
+            persist();
+        }
+
+        // rolls back the valid entries of an interrupted transaction and frees what it allocated, or
+        // finishes the frees of one that committed; overflow segments are reclaimed afterwards by the caller
+        void recover() {
+            SlabArena.SlotList allocated = new SlabArena.SlotList();
+            SlabArena.SlotList freed = new SlabArena.SlotList();
+            boolean committed = false;
+            long p = start + 8;
+            long end = start + LANE_SIZE;
+            while (p + ENTRY_HEADER <= end && getLong(p) == seq) {
+                long address = getLong(p + 8);
+                long length = getLong(p + 16);
+                if (address < 0) {
+                    if (getLong(p + 24) != checksum(p, 0)) break;
+                    if (address == LINK) {
+                        p = length;
+                        end = p - BLOCK_HEADER + getLong(p - BLOCK_HEADER);
+                        continue;
+                    }
+                    if (address == ALLOC) allocated.add(length);
+                    else if (address == FREE) freed.add(length);
+                    else committed = true;
+                    p += ENTRY_HEADER;
+                    continue;
+                }
+                long padded = (length + 7) & ~7L;
+                if (length < 0 || p + ENTRY_HEADER + padded > end || getLong(p + 24) != checksum(p, padded)) break;
+                entries.add(p);
+                p += ENTRY_HEADER + padded;
+            }
+            if (entries.size() == 0 && allocated.size() == 0 && freed.size() == 0 && !committed) return;
+            if (committed) {
+                for (int i = 0; i < freed.size(); i++) if (isAllocated(freed.get(i))) freeNow(freed.get(i));
+            }
+            else {
+                undo();
+                for (int i = 0; i < allocated.size(); i++) if (isAllocated(allocated.get(i))) freeNow(allocated.get(i));
+            }
+            retire();
+        }
+
+        private void retire() {
+            putLong(start, ++seq);
+            persist();
+            for (int i = 0; i < segments.size(); i++) freeNow(segments.get(i));
+            segments.clear();
+            reset();
+        }
+
+        private long checksum(long entry, long padded) {
+            long h = 0xcbf29ce484222325L;
+            h = (h ^ getLong(entry)) * 0x100000001b3L;
+            h = (h ^ getLong(entry + 8)) * 0x100000001b3L;
+            h = (h ^ getLong(entry + 16)) * 0x100000001b3L;
+            for (long i = 0; i < padded; i += 8) h = (h ^ getLong(entry + ENTRY_HEADER + i)) * 0x100000001b3L;
+            return h;
+        }
+    }
+
+    // ---- allocation ----
+
+    private static int bin(long blockSize) {
+        return 63 - Long.numberOfLeadingZeros(blockSize) - MIN_BLOCK_SHIFT;
+    }
+
+    // zero-filled region of at least size bytes
+    long allocate(long size, long type) {
+        Tx tx = txs.get();
+        if (tx.depth == 0) return allocateBlock(size, type, null);
+        tx.lane.reserve();
+        long addr = allocateBlock(size, type, tx.lane);
+        tx.allocated.add(addr);
+        return addr;
+    }
+
+    // owner, if given, is the lane of the transaction the block is allocated for, with room reserved for
+    // the intent; written before the allocation commits, it is there for recovery whenever the block is
+    private long allocateBlock(long size, long type, Lane owner) {
+        long blockSize = Math.max(1L << MIN_BLOCK_SHIFT, Long.highestOneBit(size + BLOCK_HEADER - 1) << 1);
+        int bin = bin(blockSize);
+        if (bin >= NUM_BINS) throw new PersistenceException("allocation too large: " + size);
+        long block;
+        synchronized (allocatorLane) {
+            long head = BINS + bin * 8;
+            block = getLong(head);
+            if (block != 0) {
+                freeListBytes -= blockSize;
+                allocatorLane.log(head, 8);
+                allocatorLane.log(block + BLOCK_HEADER, 8);
+                putLong(head, getLong(block + BLOCK_HEADER));
+            }
+            else {
+                block = getLong(HEAP_TOP);
+                if (block + blockSize > this.size) throw new PersistenceException("Failed to allocate MemoryRegion! (pool full)");
+                allocatorLane.log(HEAP_TOP, 8);
+                putLong(HEAP_TOP, block + blockSize);
+            }
+            allocatorLane.log(block, BLOCK_HEADER);
+            putLong(block, blockSize);
+            putLong(block + 8, type);
+            UNSAFE.setMemory(base + block + BLOCK_HEADER, blockSize - BLOCK_HEADER, (byte)0);
+            if (owner != null) owner.note(ALLOC, block + BLOCK_HEADER);
+            allocatorLane.commit();
+        }
+        return block + BLOCK_HEADER;
+    }
+
+    void free(long addr) {
+        Tx tx = txs.get();
+        if (tx.depth > 0) tx.freed.add(addr);
+        else freeNow(addr);
+    }
+
+    private void freeNow(long addr) {
+        long block = addr - BLOCK_HEADER;
+        synchronized (allocatorLane) {
+            long head = BINS + bin(getLong(block)) * 8;
+            allocatorLane.log(block + 8, 16);
+            allocatorLane.log(head, 8);
+            putLong(block + 8, 0);
+            putLong(addr, getLong(head));
+            putLong(head, block);
+            allocatorLane.commit();
+            freeListBytes += getLong(block);
+        }
+    }
+
+    // false for a free block, and for one past the heap top (an allocation rolled back)
+    private boolean isAllocated(long addr) {
+        long block = addr - BLOCK_HEADER;
+        return block < getLong(HEAP_TOP) && getLong(block + 8) != 0;
+    }
+
+    // usable bytes of the region at addr
+    long usableSize(long addr) {
+        return getLong(addr - BLOCK_HEADER) - BLOCK_HEADER;
+    }
+
+    long capacity() {return size - HEAP_START;}
+
+    long freeBytes() {
+        synchronized (allocatorLane) {
+            return size - getLong(HEAP_TOP) + freeListBytes;
+        }
+    }
+
+    // a free block or the untouched space past the heap top, whichever is larger
+    long largestFreeExtent() {
+        synchronized (allocatorLane) {
+            long largest = size - getLong(HEAP_TOP);
+            for (int bin = NUM_BINS - 1; bin >= 0; bin--) {
+                if (getLong(BINS + bin * 8) != 0) return Math.max(largest, (1L << (bin + MIN_BLOCK_SHIFT)));
+            }
+            return largest;
+        }
+    }
+
+    // next allocated block of the given type after addr (0 to start), 0 if none
+    long next(long addr, long type) {
+        long top = getLong(HEAP_TOP);
+        long block = addr == 0 ? HEAP_START : addr - BLOCK_HEADER + getLong(addr - BLOCK_HEADER);
+        for (; block < top; block += getLong(block)) {
+            if (getLong(block + 8) == type) return block + BLOCK_HEADER;
+        }
+        return 0;
+    }
+
+    long count(long type, boolean verbose) {
+        long count = 0;
+        for (long addr = next(0, type); addr != 0; addr = next(addr, type)) {
+            if (verbose) System.out.println("MemoryRegion found at address " + addr);
+            count++;
+        }
+        if (verbose) System.out.println("Total number of MemoryRegions: " + count);
+        return count;
+    }
+
+    // ---- arena chunks and slots (see SlabArena) ----
+
+    long allocateChunk(long size, long slotSize) {
+        long chunk = allocate(size, CHUNK_TYPE);
+        putLong(chunk, slotSize);
+        putLong(chunk + 8, size);
+        persist();
+        return chunk;
+    }
+
+    void claimSlot(long slot, long slotSize) {
+        UNSAFE.setMemory(base + slot + 8, slotSize - 8, (byte)0);
+        persist();
+        putLong(slot, 1, 8);
+    }
+
+    void releaseSlot(long slot) {
+        putLong(slot, 0, 8);
+    }
+
+    // ---- root ----
+
+    boolean rootExists() {return getLong(ROOT_OFFSET) != 0;}
+    long rootOffset() {return getLong(ROOT_OFFSET);}
+
+    long createRoot(long size) {
+        long root = allocate(size, ROOT_TYPE);
+        putLong(ROOT_OFFSET, root);
+        persist();
+        return root;
+    }
+}
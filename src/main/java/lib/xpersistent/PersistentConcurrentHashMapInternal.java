@@ -596,6 +596,7 @@ public class PersistentConcurrentHashMapInternal {
         final NodeLL parentSentinel = getSentinel(parentSlotIndex);        // guaranteed not to be null
         // System.out.println("thread " + Thread.currentThread().getId() + " trying to lock parentSlot 0x" + Long.toHexString(parentSlotIndex));
         Transaction.run(() -> {
+            ret.set(null);      // a retry walks afresh
             // System.out.println("thread " + Thread.currentThread().getId() + " locked parentSlot 0x" + Long.toHexString(parentSlotIndex));
             NodeLL curr = NodeLL.copyOf(parentSentinel), next = curr.getNext();
             while (true) {
@@ -628,21 +629,21 @@ public class PersistentConcurrentHashMapInternal {
                     } else if (c == 0) {
                         // System.out.println("thread " + Thread.currentThread().getId() + " just got slot 0x" + hexSlot);
                         ret.set(next);
-                        setNodeIfNull(slot, next);
                         break;
                     } else break;
                 } else break;
             }
             if (ret.get() == null) {
-                final NodeLL nextF = next, currF = curr;
-                Transaction.runOuter(() -> {
-                    NodeLL newSentinel = new NodeLL(sentinelKey, slot, SENTINEL_NODE_VALUE, nextF);
-                    ret.set(newSentinel);
-                    currF.setNext(newSentinel);
-                });
-                setNodeIfNull(slot, curr.getNext());
+                // linked in the caller's transaction; committed apart, the link could be rolled back by an
+                // abort of an enclosing transaction that had already logged curr, orphaning the sentinel
+                NodeLL newSentinel = new NodeLL(sentinelKey, slot, SENTINEL_NODE_VALUE, next);
+                curr.setNext(newSentinel);
+                ret.set(newSentinel);
                 // System.out.println("thread " + Thread.currentThread().getId() + " inserted new slot 0x" + hexSlot + ", curr is " + curr + ", new node is " + curr.getNext());
             }
+            // published on commit, so no thread starts from a sentinel that an abort can still unlink
+            NodeLL result = ret.get();
+            XTransaction.tlInfo.get().sentinels.add(() -> setNodeIfNull(slot, result));
         }, parentSlot.getLock());
 
         return ret.get();
@@ -689,6 +690,15 @@ public class PersistentConcurrentHashMapInternal {
         return ret.get();
     }
 
+    // publishes, or drops, the sentinels found or made by a top-level transaction
+    static void transactionEnded(TransactionInfo info, boolean committed) {
+        if (info.sentinels.isEmpty()) return;
+        if (committed) {
+            for (Runnable publish : info.sentinels) publish.run();
+        }
+        info.sentinels.clear();
+    }
+
     private NodeLL getNode(int index) {
         Slot slot = table.getSlot(index, false);
         return slot.getSlotSentinel();
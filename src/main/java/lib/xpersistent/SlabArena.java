@@ -0,0 +1,275 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.xpersistent;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lib.util.persistent.Transaction;
+import lib.util.persistent.TransactionInfo;
+import lib.util.persistent.PersistenceException;
+import lib.util.persistent.Config;
+import lib.util.persistent.HeapStats;
+
+// Thread-local size-class slabs for small regions. Chunks are large pmemobj allocations with their
+// own type number; each slot in a chunk starts with an in-use word that is set and cleared inside
+// the caller's transaction, so an aborted or interrupted allocation or free is rolled back with it.
+// Which slots are free is rebuilt from those words when the heap is opened.
+//
+// chunk: [slot size (8)][chunk size (8)][slot]...   slot: [in-use (8)][region ...]
+public final class SlabArena {
+    static final int[] SLOT_SIZES = {32, 48, 64, 80, 96, 128, 160, 192, 256};
+    static final long CHUNK_SIZE = 256 * 1024;
+    static final int CHUNK_HEADER = 16;
+    static final int SLOT_HEADER = 8;
+
+    private static volatile SlabArena instance;
+
+    private final XHeap heap;
+    private final ConcurrentSkipListMap<Long, Chunk> chunks = new ConcurrentSkipListMap<>();
+    private final ConcurrentLinkedDeque<Long>[] freeSlots;
+    private final ThreadLocal<Bumps> bumps;
+    // every thread's bump ranges; those of threads that have ended are swept into freeSlots on refill
+    private final ConcurrentLinkedQueue<Bumps> allBumps = new ConcurrentLinkedQueue<>();
+    // chunks are allocated on their own thread so they are never part of (and rolled back with) a caller's transaction
+    private final ExecutorService refill = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SlabArena refill");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Chunk {
+        final long end;
+        final int sizeClass;
+
+        Chunk(long end, int sizeClass) {
+            this.end = end;
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    private static final class Bump {
+        long next;
+        long end;
+    }
+
+    private static final class Bumps {
+        final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        final Bump[] classes = new Bump[SLOT_SIZES.length];
+
+        Bumps() {
+            for (int i = 0; i < classes.length; i++) classes[i] = new Bump();
+        }
+
+        boolean ownerEnded() {
+            Thread t = owner.get();
+            return t == null || !t.isAlive();
+        }
+    }
+
+    private SlabArena(XHeap heap) {
+        this.heap = heap;
+        // no generic array creation; every element is a ConcurrentLinkedDeque<Long>
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedDeque<Long>[] slots = (ConcurrentLinkedDeque<Long>[])new ConcurrentLinkedDeque<?>[SLOT_SIZES.length];
+        for (int i = 0; i < slots.length; i++) slots[i] = new ConcurrentLinkedDeque<>();
+        freeSlots = slots;
+        bumps = ThreadLocal.withInitial(() -> {
+            Bumps b = new Bumps();
+            allBumps.add(b);
+            return b;
+        });
+    }
+
+    static SlabArena open(XHeap heap) {
+        SlabArena arena = new SlabArena(heap);
+        arena.recover();
+        instance = arena;
+        return arena;
+    }
+
+    static void close() {
+        SlabArena arena = instance;
+        instance = null;
+        if (arena != null) arena.refill.shutdown();
+    }
+
+    private void recover() {
+        for (long chunk = heap.nextChunk(0); chunk != 0; chunk = heap.nextChunk(chunk)) {
+            UncheckedPersistentMemoryRegion reg = new UncheckedPersistentMemoryRegion(chunk);
+            int sizeClass = sizeClass(reg.getLong(0));
+            long size = reg.getLong(8);
+            if (sizeClass < 0 || SLOT_SIZES[sizeClass] != reg.getLong(0)) throw new PersistenceException("corrupt arena chunk at " + chunk);
+            long end = chunk + CHUNK_HEADER + (size - CHUNK_HEADER) / SLOT_SIZES[sizeClass] * SLOT_SIZES[sizeClass];
+            chunks.put(chunk, new Chunk(end, sizeClass));
+            for (long slot = chunk + CHUNK_HEADER; slot < end; slot += SLOT_SIZES[sizeClass]) {
+                if (reg.getLong(slot - chunk) == 0) freeSlots[sizeClass].push(slot);
+                else if (Config.ENABLE_HEAP_STATS) HeapStats.current.existingRegion(SLOT_SIZES[sizeClass] - SLOT_HEADER);
+            }
+        }
+    }
+
+    // address of a zero-filled region of at least size bytes, 0 if size is too big for a slab
+    long allocate(long size) {
+        int c = sizeClass(size + SLOT_HEADER);
+        if (c < 0) return 0;
+        long slot = nextSlot(c);
+        try {
+            heap.claimSlot(slot, SLOT_SIZES[c]);
+        }
+        catch (RuntimeException | Error e) {
+            freeSlots[c].push(slot);
+            throw e;
+        }
+        TransactionInfo info = XTransaction.tlInfo.get();
+        if (info.state == Transaction.State.Active) info.claimedSlots.add(slot);
+        return slot + SLOT_HEADER;
+    }
+
+    // usable size of the freed region, 0 if addr was not allocated from a slab
+    long free(long addr) {
+        Map.Entry<Long, Chunk> e = chunks.floorEntry(addr);
+        if (e == null || addr >= e.getValue().end) return 0;
+        long slot = addr - SLOT_HEADER;
+        heap.releaseSlot(slot);
+        TransactionInfo info = XTransaction.tlInfo.get();
+        if (info.state == Transaction.State.Active) info.freedSlots.add(slot);
+        else freeSlots[e.getValue().sizeClass].push(slot);
+        return SLOT_SIZES[e.getValue().sizeClass] - SLOT_HEADER;
+    }
+
+    // usable size of the region at addr, 0 if it was not allocated from a slab
+    long regionSize(long addr) {
+        Map.Entry<Long, Chunk> e = chunks.floorEntry(addr);
+        if (e == null || addr >= e.getValue().end) return 0;
+        return SLOT_SIZES[e.getValue().sizeClass] - SLOT_HEADER;
+    }
+
+    // usable size of the region allocate(size) returns
+    static long regionSizeFor(long size) {
+        return SLOT_SIZES[sizeClass(size + SLOT_HEADER)] - SLOT_HEADER;
+    }
+
+    // number of slots currently marked in use, for XHeap.debug()
+    long slotsInUse() {
+        long count = 0;
+        for (Map.Entry<Long, Chunk> e : chunks.entrySet()) {
+            long chunk = e.getKey();
+            UncheckedPersistentMemoryRegion reg = new UncheckedPersistentMemoryRegion(chunk);
+            int size = SLOT_SIZES[e.getValue().sizeClass];
+            for (long slot = chunk + CHUNK_HEADER; slot < e.getValue().end; slot += size) {
+                if (reg.getLong(slot - chunk) != 0) count++;
+            }
+        }
+        return count;
+    }
+
+    // called when the outermost transaction ends: slots it freed become reusable once the free is
+    // durable; slots it claimed are free again if it rolled back
+    public static void transactionEnded(TransactionInfo info, boolean committed) {
+        SlabArena arena = instance;
+        if (arena != null) {
+            SlotList reusable = committed ? info.freedSlots : info.claimedSlots;
+            for (int i = 0; i < reusable.size(); i++) arena.release(reusable.get(i));
+        }
+        info.claimedSlots.clear();
+        info.freedSlots.clear();
+    }
+
+    private void release(long slot) {
+        Map.Entry<Long, Chunk> e = chunks.floorEntry(slot);
+        freeSlots[e.getValue().sizeClass].push(slot);
+    }
+
+    private long nextSlot(int c) {
+        Bump b = bumps.get().classes[c];
+        if (b.next < b.end) {
+            long slot = b.next;
+            b.next += SLOT_SIZES[c];
+            return slot;
+        }
+        Long free = freeSlots[c].poll();
+        if (free != null) return free;
+        sweepEndedThreads();
+        free = freeSlots[c].poll();
+        if (free != null) return free;
+        long chunk = newChunk(c);
+        long first = chunk + CHUNK_HEADER;
+        b.next = first + SLOT_SIZES[c];
+        b.end = first + slotsPerChunk(c) * SLOT_SIZES[c];
+        return first;
+    }
+
+    // The slots left in a bump range are unclaimed, so once its thread has ended they are simply free.
+    // Removing the ranges from allBumps first makes sure only one thread frees them.
+    private void sweepEndedThreads() {
+        for (Bumps b : allBumps) {
+            if (!b.ownerEnded() || !allBumps.remove(b)) continue;
+            for (int c = 0; c < b.classes.length; c++) {
+                for (long slot = b.classes[c].next; slot < b.classes[c].end; slot += SLOT_SIZES[c]) freeSlots[c].push(slot);
+            }
+        }
+    }
+
+    private long newChunk(int c) {
+        long chunk;
+        try {
+            chunk = refill.submit(() -> heap.allocateChunk(CHUNK_SIZE, SLOT_SIZES[c])).get();
+        }
+        catch (Exception e) {
+            throw new PersistenceException("failed to allocate arena chunk: " + e);
+        }
+        chunks.put(chunk, new Chunk(chunk + CHUNK_HEADER + slotsPerChunk(c) * SLOT_SIZES[c], c));
+        return chunk;
+    }
+
+    private static long slotsPerChunk(int c) {
+        return (CHUNK_SIZE - CHUNK_HEADER) / SLOT_SIZES[c];
+    }
+
+    private static int sizeClass(long size) {
+        for (int i = 0; i < SLOT_SIZES.length; i++) {
+            if (size <= SLOT_SIZES[i]) return i;
+        }
+        return -1;
+    }
+
+    // growable list of slot addresses, reused across transactions
+    public static final class SlotList {
+        private long[] slots = new long[16];
+        private int size;
+
+        public void add(long slot) {
+            if (size == slots.length) slots = Arrays.copyOf(slots, size * 2);
+            slots[size++] = slot;
+        }
+
+        public long get(int i) {return slots[i];}
+        public int size() {return size;}
+        public void clear() {size = 0;}
+    }
+}
@@ -0,0 +1,103 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package lib.xpersistent;
+
+import java.util.Arrays;
+
+// Per-thread record of which pool bytes the current native transaction has already
+// added to its undo log, kept as a 64-bit byte mask per cache line so repeated
+// stores to the same field within one transaction need no further JNI calls.
+public final class SnapshotRanges {
+    private static final int LINE_SHIFT = 6;
+    private static final int LINE_MASK = (1 << LINE_SHIFT) - 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] lines;   // cache line number + 1, 0 marks an empty slot
+    private long[] masks;   // bit i set means byte i of the line is snapshotted
+    private int count;
+
+    public SnapshotRanges() {
+        lines = new long[INITIAL_CAPACITY];
+        masks = new long[INITIAL_CAPACITY];
+    }
+
+    // marks [address, address + length) as snapshotted, returns true if any byte was not already
+    public boolean add(long address, int length) {
+        boolean added = false;
+        long end = address + length;
+        while (address < end) {
+            int from = (int)(address & LINE_MASK);
+            int n = (int)Math.min(LINE_MASK + 1 - from, end - address);
+            long bits = n == LINE_MASK + 1 ? -1L : ((1L << n) - 1) << from;
+            added |= mark(address >>> LINE_SHIFT, bits);
+            address += n;
+        }
+        return added;
+    }
+
+    public void clear() {
+        if (count == 0) return;
+        if (lines.length > INITIAL_CAPACITY * 64) {
+            lines = new long[INITIAL_CAPACITY];
+            masks = new long[INITIAL_CAPACITY];
+        }
+        else {
+            Arrays.fill(lines, 0L);
+            Arrays.fill(masks, 0L);
+        }
+        count = 0;
+    }
+
+    private boolean mark(long line, long bits) {
+        long key = line + 1;
+        int i = slot(lines, key);
+        if (lines[i] == key) {
+            long old = masks[i];
+            masks[i] = old | bits;
+            return (old & bits) != bits;
+        }
+        lines[i] = key;
+        masks[i] = bits;
+        if (++count * 2 > lines.length) grow();
+        return true;
+    }
+
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int i = (int)(key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        while (keys[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldLines = lines;
+        long[] oldMasks = masks;
+        lines = new long[oldLines.length * 2];
+        masks = new long[oldMasks.length * 2];
+        for (int i = 0; i < oldLines.length; i++) {
+            if (oldLines[i] == 0) continue;
+            int j = slot(lines, oldLines[i]);
+            lines[j] = oldLines[i];
+            masks[j] = oldMasks[i];
+        }
+    }
+}
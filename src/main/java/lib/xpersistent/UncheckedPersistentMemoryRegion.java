@@ -22,12 +22,27 @@
 package lib.xpersistent;
 
 import lib.util.persistent.MemoryRegion;
+import lib.util.persistent.Transaction;
+import lib.util.persistent.TransactionInfo;
+import sun.misc.Unsafe;
 
+@SuppressWarnings("sunapi")
 public class UncheckedPersistentMemoryRegion implements MemoryRegion {
+    private static final Unsafe UNSAFE;
+    // mapped base address of the open pool; 0 means reads fall back to JNI
+    private static long poolAddress;
     private long addr;
 
     static {
-        System.loadLibrary("Persistent");
+        if (!MappedPool.SELECTED) System.loadLibrary("Persistent");
+        try {
+            java.lang.reflect.Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe)f.get(null);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Unable to initialize UNSAFE.");
+        }
     }
 
     public UncheckedPersistentMemoryRegion(long addr) {
@@ -40,44 +55,113 @@ public class UncheckedPersistentMemoryRegion implements MemoryRegion {
 
     public void addr(long addr) { this.addr = addr; }
 
+    static void setPoolAddress(long address) {
+        poolAddress = address;
+    }
+
     public void checkAccess(int mode) throws IllegalAccessException {}
     public void checkAlive() {}
     public void checkBounds(long offset) throws IndexOutOfBoundsException {}
 
     private long getBits(long offset, long size, boolean isSigned) {
+        MappedPool mapped = MappedPool.instance;
+        if (mapped != null) return mapped.getLong(this.addr + offset, (int)size);
         return nativeGetLong(this.addr, offset, (int)size);
     }
 
     private void putBits(long offset, long size, long value) {
-        nativePutLong(this.addr, offset, value, (int)size);
+        MappedPool mapped = MappedPool.instance;
+        if (mapped != null) mapped.putLong(this.addr + offset, value, (int)size);
+        else nativePutLong(this.addr, offset, value, (int)size);
+    }
+
+    // Inside an active transaction, adds [offset, offset + size) to the transaction's undo log
+    // (at most once per byte per transaction) and returns true so the caller can store directly.
+    // Outside a transaction, or before the pool is mapped, returns false and the caller must
+    // fall back to the self-contained native store.
+    private boolean snapshot(long offset, int size) {
+        if (poolAddress == 0) return false;
+        TransactionInfo info = XTransaction.tlInfo.get();
+        if (info.state != Transaction.State.Active) return false;
+        long start = this.addr + offset;
+        if (info.snapshots.add(start, size)) addRange(start, size);
+        return true;
     }
 
     public byte getByte(long offset) {
+        long base = poolAddress;
+        if (base != 0) return UNSAFE.getByte(base + this.addr + offset);
         return (byte)getBits(offset, 1, true);
     }
     public void putByte(long offset, byte value) {
-        putBits(offset, 1, value);
+        if (snapshot(offset, 1)) UNSAFE.putByte(poolAddress + this.addr + offset, value);
+        else putBits(offset, 1, value);
     }
 
     public short getShort(long offset) {
+        long base = poolAddress;
+        if (base != 0) return UNSAFE.getShort(base + this.addr + offset);
         return (short)getBits(offset, 2, true);
     }
     public void putShort(long offset, short value) {
-        putBits(offset, 2, value);
+        if (snapshot(offset, 2)) UNSAFE.putShort(poolAddress + this.addr + offset, value);
+        else putBits(offset, 2, value);
     }
 
     public int getInt(long offset) {
+        long base = poolAddress;
+        if (base != 0) return UNSAFE.getInt(base + this.addr + offset);
         return (int)getBits(offset, 4, true);
     }
     public void putInt(long offset, int value) {
-        putBits(offset, 4, value);
+        if (snapshot(offset, 4)) UNSAFE.putInt(poolAddress + this.addr + offset, value);
+        else putBits(offset, 4, value);
     }
 
     public long getLong(long offset) {
+        long base = poolAddress;
+        if (base != 0) return UNSAFE.getLong(base + this.addr + offset);
         return getBits(offset, 8, true);
     }
     public void putLong(long offset, long value) {
-        putBits(offset, 8, value);
+        if (snapshot(offset, 8)) UNSAFE.putLong(poolAddress + this.addr + offset, value);
+        else putBits(offset, 8, value);
+    }
+
+    // Stores that bypass the undo log and are persisted immediately; only for regions that
+    // are not yet reachable from any committed object, e.g. freshly allocated ones.
+    public void putDurableByte(long offset, byte value) {
+        putDurable(offset, value, 1);
+    }
+
+    public void putDurableShort(long offset, short value) {
+        putDurable(offset, value, 2);
+    }
+
+    public void putDurableInt(long offset, int value) {
+        putDurable(offset, value, 4);
+    }
+
+    public void putDurableLong(long offset, long value) {
+        putDurable(offset, value, 8);
+    }
+
+    public void putDurableBytes(long offset, byte[] bytes) {
+        MappedPool mapped = MappedPool.instance;
+        if (mapped != null) mapped.putBytesDurable(this.addr + offset, bytes, bytes.length);
+        else nativePutBytesDurable(this.addr, offset, bytes, bytes.length);
+    }
+
+    private void putDurable(long offset, long value, int size) {
+        MappedPool mapped = MappedPool.instance;
+        if (mapped != null) mapped.putLongDurable(this.addr + offset, value, size);
+        else nativePutLongDurable(this.addr, offset, value, size);
+    }
+
+    private static void addRange(long address, int size) {
+        MappedPool mapped = MappedPool.instance;
+        if (mapped != null) mapped.addRange(address, size);
+        else nativeAddRange(address, size);
     }
 
     public long getAddress(long offset) {
@@ -89,4 +173,7 @@ public class UncheckedPersistentMemoryRegion implements MemoryRegion {
 
     private native long nativeGetLong(long regionOffset, long offset, int size);
     private native void nativePutLong(long regionOffset, long offset, long value, int size);
+    private native void nativePutLongDurable(long regionOffset, long offset, long value, int size);
+    private native void nativePutBytesDurable(long regionOffset, long offset, byte[] bytes, int length);
+    private static native void nativeAddRange(long address, int size);
 }
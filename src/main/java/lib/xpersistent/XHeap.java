@@ -28,33 +28,123 @@ import lib.util.persistent.spi.PersistentMemoryProvider;
 import lib.util.persistent.Root;
 import lib.util.persistent.CycleCollector;
 import lib.util.persistent.Transaction;
+import lib.util.persistent.Config;
 import lib.util.persistent.ObjectDirectory;
+import lib.util.persistent.HeapStats;
+import lib.util.persistent.HeapStatsMXBean;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+import javax.management.ObjectName;
 
 public class XHeap implements PersistentHeap {
     static {
-        System.loadLibrary("Persistent");
+        if (!MappedPool.SELECTED) System.loadLibrary("Persistent");
     }
 
+    static final String DAX_PATH = "/dev/dax0.0";
+    static final String FILE_PATH = "/mnt/mem/persistent_pool";
+    static final long DEFAULT_SIZE = 2L << 30;
+    static final long MAPPED_DEFAULT_SIZE = Integer.MAX_VALUE & ~0xfffL;   // largest Java 8 mapping
+
     private final PersistentMemoryProvider provider;
+    private final String path;
+    private final long size;
     private Root root;
     private boolean open;
     private boolean debug;
+    private volatile SlabArena arena;
+    private MappedPool mapped;      // pure-Java backend, if -Dpcj.pool.backend=mapped
+    private static boolean registered;
 
     public XHeap() {
         this(PersistentMemoryProvider.getDefaultProvider());
     }
 
+    // pool location and size come from -Dpcj.pool.path and -Dpcj.pool.size (e.g. 200g); by default
+    // a device DAX node if present, otherwise a 2 GB pool file
     public XHeap(PersistentMemoryProvider provider) {
+        this(provider, System.getProperty("pcj.pool.path"), parseSize(System.getProperty("pcj.pool.size")));
+    }
+
+    XHeap(PersistentMemoryProvider provider, String path, long size) {
         this.provider = provider;
+        if (path == null) path = new File(DAX_PATH).exists() && !MappedPool.SELECTED ? DAX_PATH : FILE_PATH;
+        if (size < 0) size = MappedPool.SELECTED ? MAPPED_DEFAULT_SIZE : isDevice(path) ? 0 : DEFAULT_SIZE;
+        else if (size == 0 && (MappedPool.SELECTED || !isDevice(path))) throw new PersistenceException("invalid pool size: 0 for " + path);
+        this.path = path;
+        this.size = size;
         this.debug = false;
         //open();
     }
 
+    // Configures a heap before anything persistent is touched, e.g.
+    //     ((XPersistentMemory)PersistentMemoryProvider.getDefaultProvider())
+    //         .setHeap(new XHeap.Builder().path("/mnt/pmem1/pool").size(200L << 30).build());
+    // A path ending in ".set" names a pmemobj poolset, which stripes one pool across several devices.
+    public static class Builder {
+        private PersistentMemoryProvider provider;
+        private String path = System.getProperty("pcj.pool.path");
+        private long size = parseSize(System.getProperty("pcj.pool.size"));
+
+        public Builder provider(PersistentMemoryProvider provider) {this.provider = provider; return this;}
+        public Builder path(String path) {this.path = path; return this;}
+        public Builder size(long size) {this.size = size; return this;}
+
+        public XHeap build() {
+            return new XHeap(provider == null ? PersistentMemoryProvider.getDefaultProvider() : provider, path, size);
+        }
+    }
+
+    public String getPath() {return path;}
+    public long getSize() {return size;}
+
+    // devices and poolsets take their size from the underlying storage
+    private static boolean isDevice(String path) {
+        return path.startsWith("/dev/") || path.endsWith(".set");
+    }
+
+    // bytes, optionally suffixed k, m, g or t; -1 if not given or blank
+    static long parseSize(String s) {
+        if (s == null || s.trim().isEmpty()) return -1;
+        String value = s.trim().toLowerCase();
+        int shift = 0;
+        switch (value.charAt(value.length() - 1)) {
+            case 'k': shift = 10; break;
+            case 'm': shift = 20; break;
+            case 'g': shift = 30; break;
+            case 't': shift = 40; break;
+        }
+        if (shift != 0) value = value.substring(0, value.length() - 1);
+        long size;
+        try {
+            size = Math.multiplyExact(Long.parseLong(value), 1L << shift);
+        }
+        catch (NumberFormatException e) {
+            throw new PersistenceException("invalid pool size: " + s);
+        }
+        catch (ArithmeticException e) {
+            throw new PersistenceException("pool size too large: " + s);
+        }
+        if (size <= 0) throw new PersistenceException("invalid pool size: " + s);
+        return size;
+    }
+
     public synchronized void open() {
         if (open) return;
         this.open = true;
         System.out.print("Opening heap... ");
-        nativeOpenHeap();
+        if (MappedPool.SELECTED) mapped = MappedPool.open(path, size);
+        else nativeOpenHeap(path, size);
+        if (Config.USE_DIRECT_REGION_READS) UncheckedPersistentMemoryRegion.setPoolAddress(mapped != null ? mapped.address() : nativeGetPoolAddress());
+        if (Config.ENABLE_HEAP_STATS) {
+            HeapStats.current.clearRegions();
+            for (long r = nextRegion(0); r != 0; r = nextRegion(r)) HeapStats.current.existingRegion(usableSize(r));
+        }
+        if (Config.USE_ALLOCATION_ARENAS) arena = SlabArena.open(this);
+        if (Config.ENABLE_HEAP_STATS) registerMBean();
         System.out.print("Cleaning up heap... ");
         cleanHeap();
         System.out.println("Heap opened.");
@@ -63,19 +153,94 @@ public class XHeap implements PersistentHeap {
     public synchronized void close() {
         if (!open) throw new PersistenceException("Heap not open!");
         this.open = false;
-        nativeCloseHeap();
+        arena = null;
+        SlabArena.close();
+        UncheckedPersistentMemoryRegion.setPoolAddress(0);
+        if (mapped != null) mapped.close();
+        else nativeCloseHeap();
+        mapped = null;
     }
 
     public MemoryRegion allocateRegion(long size) {
         if (!open) open();
-        long addr = nativeGetMemoryRegion(size);
+        SlabArena a = arena;
+        long addr = a == null ? 0 : a.allocate(size);
+        if (addr != 0) {
+            if (Config.ENABLE_HEAP_STATS) HeapStats.current.regionAllocated(SlabArena.regionSizeFor(size));
+        }
+        else {
+            addr = mapped != null ? mapped.allocate(size, MappedPool.CHAR_TYPE) : nativeGetMemoryRegion(size);
+            if (Config.ENABLE_HEAP_STATS) HeapStats.current.regionAllocated(usableSize(addr));
+        }
         MemoryRegion reg = new UncheckedPersistentMemoryRegion(addr);
         return reg;
     }
 
     public void freeRegion(MemoryRegion region) {
         if (!open) open();
-        nativeFree(region.addr());
+        long addr = region.addr();
+        SlabArena a = arena;
+        long size = a == null ? 0 : a.free(addr);
+        if (size == 0) {
+            if (Config.ENABLE_HEAP_STATS) size = usableSize(addr);
+            if (mapped != null) mapped.free(addr);
+            else nativeFree(addr);
+        }
+        if (Config.ENABLE_HEAP_STATS) HeapStats.current.regionFreed(size);
+    }
+
+    // usable bytes of an allocated region
+    public long regionSize(MemoryRegion region) {
+        SlabArena a = arena;
+        long size = a == null ? 0 : a.regionSize(region.addr());
+        return size != 0 ? size : usableSize(region.addr());
+    }
+
+    // Occupancy by size class and by type, free space and largest free extent, all from counters kept
+    // current as regions come and go. With the pmemobj backend, free space is estimated from the pool
+    // size (unknown for devices) and the largest free extent is not available (-1).
+    public HeapStats.Snapshot getHeapStats() {
+        if (!open) open();
+        if (mapped != null) return HeapStats.current.snapshot(mapped.capacity(), mapped.freeBytes(), mapped.largestFreeExtent());
+        if (size == 0) return HeapStats.current.snapshot(-1, -1, -1);
+        return HeapStats.current.snapshot(size, Math.max(0, size - HeapStats.current.usedBytes()), -1);
+    }
+
+    private void registerMBean() {
+        if (registered) return;
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), new ObjectName("lib.util.persistent:type=HeapStats"));
+        }
+        catch (Exception e) {
+            System.err.println("unable to register HeapStats MBean: " + e);
+        }
+    }
+
+    private final class MXBean implements HeapStatsMXBean {
+        public long getCapacity() {return getHeapStats().getCapacity();}
+        public long getUsedBytes() {return HeapStats.current.usedBytes();}
+        public long getFreeBytes() {return getHeapStats().getFreeBytes();}
+        public long getLargestFreeExtent() {return getHeapStats().getLargestFreeExtent();}
+        public double getFragmentation() {return getHeapStats().getFragmentation();}
+        public long getRegionCount() {return getHeapStats().getRegionCount();}
+
+        public Map<Long, Long> getRegionsBySizeClass() {
+            Map<Long, Long> ans = new TreeMap<>();
+            for (HeapStats.SizeClass c : getHeapStats().getSizeClasses()) ans.put(c.getLimit(), c.getCount());
+            return ans;
+        }
+
+        public Map<String, Long> getObjectsAllocatedByType() {return byType(HeapStats.TypeUsage::getAllocated);}
+        public Map<String, Long> getBytesAllocatedByType() {return byType(HeapStats.TypeUsage::getAllocatedBytes);}
+        public Map<String, Long> getObjectsFreedByType() {return byType(HeapStats.TypeUsage::getFreed);}
+        public Map<String, Long> getBytesFreedByType() {return byType(HeapStats.TypeUsage::getFreedBytes);}
+
+        private Map<String, Long> byType(ToLongFunction<HeapStats.TypeUsage> value) {
+            Map<String, Long> ans = new TreeMap<>();
+            for (Map.Entry<String, HeapStats.TypeUsage> e : getHeapStats().getTypes().entrySet()) ans.put(e.getKey(), value.applyAsLong(e.getValue()));
+            return ans;
+        }
     }
 
     public synchronized Root getRoot() {
@@ -92,15 +257,18 @@ public class XHeap implements PersistentHeap {
     }
 
     public void memcpy(MemoryRegion srcRegion, long srcOffset, MemoryRegion destRegion, long destOffset, long length) {
-        nativeMemoryRegionMemcpy(srcRegion.addr(), srcOffset, destRegion.addr(), destOffset, length);
+        if (mapped != null) mapped.memcpy(srcRegion.addr() + srcOffset, destRegion.addr() + destOffset, length);
+        else nativeMemoryRegionMemcpy(srcRegion.addr(), srcOffset, destRegion.addr(), destOffset, length);
     }
 
     public void memcpy(MemoryRegion srcRegion, long srcOffset, byte[] destArray, int destOffset, int length) {
-        nativeToByteArrayMemcpy(srcRegion.addr(), srcOffset, destArray, destOffset, length);
+        if (mapped != null) mapped.toByteArray(srcRegion.addr() + srcOffset, destArray, destOffset, length);
+        else nativeToByteArrayMemcpy(srcRegion.addr(), srcOffset, destArray, destOffset, length);
     }
 
     public void memcpy(byte[] srcArray, int srcOffset, MemoryRegion destRegion, long destOffset, int length) {
-        nativeFromByteArrayMemcpy(srcArray, srcOffset, destRegion.addr(), destOffset, length);
+        if (mapped != null) mapped.fromByteArray(srcArray, srcOffset, destRegion.addr() + destOffset, length);
+        else nativeFromByteArrayMemcpy(srcArray, srcOffset, destRegion.addr(), destOffset, length);
     }
 
     public void setDebugMode(boolean debug) {
@@ -114,23 +282,61 @@ public class XHeap implements PersistentHeap {
 
     public long debug(boolean verbose) {
         ((XRoot)root).printAllObjects();
-        return nativeDebugPool(verbose);
+        SlabArena a = arena;
+        long regions = mapped != null ? mapped.count(MappedPool.CHAR_TYPE, verbose) : nativeDebugPool(verbose);
+        return regions + (a == null ? 0 : a.slotsInUse());
     }
 
     private void cleanHeap() {
         Transaction.run(() -> {
             XRoot rt = (XRoot)(getRoot());
             rt.cleanVMOffsets();
-            CycleCollector.collect();
+            if (!Config.ENABLE_BACKGROUND_CYCLE_COLLECTION) CycleCollector.collect();
         });
+        // cycle collection passes over queued objects, and nothing it can reach points to them
+        ((XRoot)(getRoot())).freePendingFrees();
+        if (Config.ENABLE_BACKGROUND_CYCLE_COLLECTION) CycleCollector.startBackground();
+    }
+
+    long allocateChunk(long size, long slotSize) {
+        return mapped != null ? mapped.allocateChunk(size, slotSize) : nativeAllocateChunk(size, slotSize);
+    }
+
+    long nextChunk(long chunk) {
+        return mapped != null ? mapped.next(chunk, MappedPool.CHUNK_TYPE) : nativeNextChunk(chunk);
+    }
+
+    private long nextRegion(long addr) {
+        return mapped != null ? mapped.next(addr, MappedPool.CHAR_TYPE) : nativeNextRegion(addr);
+    }
+
+    private long usableSize(long addr) {
+        return mapped != null ? mapped.usableSize(addr) : nativeUsableSize(addr);
+    }
+
+    void claimSlot(long slot, long slotSize) {
+        if (mapped != null) mapped.claimSlot(slot, slotSize);
+        else nativeClaimSlot(slot, slotSize);
+    }
+
+    void releaseSlot(long slot) {
+        if (mapped != null) mapped.releaseSlot(slot);
+        else nativeReleaseSlot(slot);
     }
 
-    private synchronized native void nativeOpenHeap();
+    private synchronized native void nativeOpenHeap(String path, long size);
     private synchronized native void nativeCloseHeap();
     private native long nativeGetMemoryRegion(long size);
     private native void nativeFree(long addr);
-    private synchronized native void nativeMemoryRegionMemcpy(long srcRegion, long srcOffset, long destRegion, long destOffset, long length);
-    private synchronized native void nativeToByteArrayMemcpy(long srcRegion, long srcOffset, byte[] destArray, int destOffset, int length);
-    private synchronized native void nativeFromByteArrayMemcpy(byte[] srcArray, int srcOffset, long destRegion, long destOffset, int length);
+    private native void nativeMemoryRegionMemcpy(long srcRegion, long srcOffset, long destRegion, long destOffset, long length);
+    private native void nativeToByteArrayMemcpy(long srcRegion, long srcOffset, byte[] destArray, int destOffset, int length);
+    private native void nativeFromByteArrayMemcpy(byte[] srcArray, int srcOffset, long destRegion, long destOffset, int length);
     private synchronized native long nativeDebugPool(boolean verbose);
+    private native long nativeGetPoolAddress();
+    private native long nativeAllocateChunk(long size, long slotSize);
+    private native long nativeNextChunk(long chunk);
+    private native void nativeClaimSlot(long slot, long slotSize);
+    private native void nativeReleaseSlot(long slot);
+    private native long nativeNextRegion(long addr);
+    private native long nativeUsableSize(long addr);
 }
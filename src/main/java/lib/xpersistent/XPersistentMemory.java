@@ -40,6 +40,12 @@ public class XPersistentMemory extends PersistentMemoryProvider {
         return new XTransaction();
     }
 
+    // installs a configured heap (see XHeap.Builder); must be called before the heap is first used
+    public synchronized void setHeap(XHeap heap) {
+        if (this.heap != null && this.heap != heap) throw new IllegalStateException("heap already in use");
+        this.heap = heap;
+    }
+
     @Override
     public synchronized PersistentHeap getHeap() {
         if (this.heap == null) {
@@ -25,13 +25,23 @@ import lib.util.persistent.*;
 import lib.util.persistent.types.*;
 import lib.xpersistent.PersistentConcurrentHashMapInternal.EntryIterator;
 import lib.util.persistent.spi.*;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.function.LongConsumer;
 import lib.util.persistent.PersistentLong;
 
 public final class XRoot implements Root {
     private final MemoryRegion region;
     private final XHeap heap;
-    private final long ROOT_SIZE = 32;   // 4 objects, each represented by an 8-byte pointer
+    private final long ROOT_SIZE = 48;   // 4 objects and the type registry, each an 8-byte pointer, then the format
+    // slot 16 held the never-populated allObjects map; pools written before it recorded free lists
+    // have an empty map there, which reads as no pending frees
+    private static final long PENDING_FREES = 16;
+    private static final long TYPE_REGISTRY = 32;
+    // layout of the root and of object headers; pools from before type ids have a 32-byte root and no
+    // word here, and their headers hold type name addresses this version cannot read
+    private static final long FORMAT = 40;
+    private static final long FORMAT_VERSION = 0x50434a00_00000002L;   // "PCJ", version 2
 
     private HashSet<Long> candidatesSet;
 
@@ -39,30 +49,35 @@ public final class XRoot implements Root {
 
     PersistentConcurrentHashMapInternal vmOffsets;
     PersistentConcurrentHashMapInternal prevVMOffsets;
-    PersistentConcurrentHashMapInternal allObjects;
+    PersistentConcurrentHashMapInternal pendingFrees;   // heads of free lists not yet drained
     PersistentConcurrentHashMapInternal candidates;
 
     @SuppressWarnings("unchecked")
     public XRoot(XHeap heap) {
         this.heap = heap;
-        if (nativeRootExists()) {
-            region = new UncheckedPersistentMemoryRegion(nativeGetRootOffset());
+        MappedPool mapped = MappedPool.instance;
+        if (mapped != null ? mapped.rootExists() : nativeRootExists()) {
+            region = new UncheckedPersistentMemoryRegion(mapped != null ? mapped.rootOffset() : nativeGetRootOffset());
+            if (region.getLong(FORMAT) != FORMAT_VERSION) throw new PersistenceException("heap was created by an earlier, incompatible version of this library; recreate the pool");
+            TypeRegistry.open(region, TYPE_REGISTRY);
             objectDirectory = PersistentObject.fromPointer(new ObjectPointer<PersistentHashMap>(PersistentHashMap.TYPE, new UncheckedPersistentMemoryRegion(region.getLong(0))));
             this.prevVMOffsets = new PersistentConcurrentHashMapInternal(region.getLong(8));
             this.vmOffsets = new PersistentConcurrentHashMapInternal();
             region.putLong(8, this.vmOffsets.addr());
-            allObjects = new PersistentConcurrentHashMapInternal(region.getLong(16), true);
+            pendingFrees = new PersistentConcurrentHashMapInternal(region.getLong(PENDING_FREES), true);
             candidates = new PersistentConcurrentHashMapInternal(region.getLong(24), true);
         } else {
-            region = new UncheckedPersistentMemoryRegion(nativeCreateRoot(ROOT_SIZE));
+            region = new UncheckedPersistentMemoryRegion(mapped != null ? mapped.createRoot(ROOT_SIZE) : nativeCreateRoot(ROOT_SIZE));
+            region.putLong(FORMAT, FORMAT_VERSION);
+            TypeRegistry.open(region, TYPE_REGISTRY);
             MemoryRegion objectDirectoryRegion = heap.allocateRegion(PersistentHashMap.TYPE.getAllocationSize());
             objectDirectory = PersistentObject.fromPointer(new ObjectPointer<>(PersistentHashMap.TYPE, objectDirectoryRegion));
             region.putLong(0, objectDirectoryRegion.addr());
             this.vmOffsets = new PersistentConcurrentHashMapInternal();
             this.prevVMOffsets = null;
             region.putLong(8, this.vmOffsets.addr());
-            this.allObjects = new PersistentConcurrentHashMapInternal();
-            region.putLong(16, this.allObjects.addr());
+            this.pendingFrees = new PersistentConcurrentHashMapInternal();
+            region.putLong(PENDING_FREES, this.pendingFrees.addr());
             this.candidates = new PersistentConcurrentHashMapInternal();
             region.putLong(24, this.candidates.addr());
         }
@@ -94,6 +109,38 @@ public final class XRoot implements Root {
         candidates.remove(addr);
     }
 
+    // removes addr as part of the caller's transaction; false if it was not a candidate
+    public boolean takeCandidate(long addr) {
+        return candidates.remove(addr) != -1;
+    }
+
+    // only while no other thread can change the candidate set
+    public void forEachCandidate(LongConsumer action) {
+        PersistentConcurrentHashMapInternal.EntryIterator iter = candidates.iter();
+        while (iter.hasNext()) action.accept(iter.next().getKey());
+    }
+
+    public void addPendingFrees(long head) {
+        pendingFrees.put(head, 0);
+    }
+
+    public void removePendingFrees(long head) {
+        pendingFrees.remove(head);
+    }
+
+    // true until every list committed transactions left queued has been freed
+    public boolean hasPendingFrees() {
+        return pendingFrees.size() > 0;
+    }
+
+    // finishes freeing what transactions committed before the heap was last closed left queued
+    void freePendingFrees() {
+        ArrayList<Long> heads = new ArrayList<>();
+        PersistentConcurrentHashMapInternal.EntryIterator iter = pendingFrees.iter();
+        while (iter.hasNext()) heads.add(iter.next().getKey());
+        for (long head : heads) AnyPersistent.resumeFree(head);
+    }
+
     void cleanVMOffsets() {
         if (prevVMOffsets != null) {
             PersistentConcurrentHashMapInternal.EntryIterator iter = prevVMOffsets.iter();
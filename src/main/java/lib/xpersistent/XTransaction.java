@@ -31,7 +31,7 @@ public class XTransaction implements Transaction {
     public static ThreadLocal<TransactionInfo> tlInfo = ThreadLocal.withInitial(() -> new TransactionInfo());
 
     static {
-        System.loadLibrary("Persistent");
+        if (!MappedPool.SELECTED) System.loadLibrary("Persistent");
         lib.util.persistent.spi.PersistentMemoryProvider.getDefaultProvider().getHeap().open();
     }
 
@@ -48,16 +48,28 @@ public class XTransaction implements Transaction {
     }
 
     public Transaction update(Transaction.Update update) {
-        if (tlInfo.get().state != Transaction.State.Active) {
+        TransactionInfo info = tlInfo.get();
+        if (info.state != Transaction.State.Active) {
             throw new TransactionError("In update: transaction not active");
         }
         update.run();
+        // still inside the transaction, so a lock timeout while applying retries it like any other
+        if (info.depth == 1 && !info.referenceDeltas.isEmpty()) info.referenceDeltas.apply();
+        // objects left queued are freed after commit, and on reopen should the heap close first
+        if (info.depth == 1 && info.unfreed != 0) {
+            ((XRoot)PersistentMemoryProvider.getDefaultProvider().getHeap().getRoot()).addPendingFrees(info.unfreed);
+        }
         return this;
     }
 
     public void addLockedObject(AnyPersistent obj) {
-        TransactionInfo info = tlInfo.get();
+        addLocked(tlInfo.get(), obj);
+    }
+
+    private static void addLocked(TransactionInfo info, AnyPersistent obj) {
         info.locked.add(obj);
+        long addr = obj.getPointer().addr();
+        if (addr > info.highestLocked) info.highestLocked = addr;
     }
 
     private void releaseLocks() {
@@ -69,27 +81,59 @@ public class XTransaction implements Transaction {
             obj.monitorExit();
         }
         toUnlock.clear();
+        info.highestLocked = Long.MIN_VALUE;
+    }
+
+    // Acquires toLock in ascending address order, skipping objects this thread already holds.
+    // A lock is waited on without a timeout only when it orders after every lock the thread
+    // already holds, so such waits can never form a cycle. Any other lock (e.g. when nested inside
+    // a transaction that locked higher addresses lazily) is tried with a timeout; on failure the
+    // locks taken here are released and false is returned so the transaction can be retried.
+    private static boolean lockInOrder(TransactionInfo info, boolean block, AnyPersistent[] toLock) {
+        AnyPersistent[] objs = toLock.length == 1 ? toLock : sortedByAddress(toLock);
+        int start = info.locked.size();
+        long highest = info.highestLocked;
+        for (AnyPersistent obj : objs) {
+            if (obj == null || obj.isHeldByCurrentThread()) continue;
+            if (block || obj.getPointer().addr() > info.highestLocked) obj.monitorEnter();
+            else if (!obj.monitorEnterTimeout()) {
+                // trace("failed to get transaction locks");
+                for (int i = info.locked.size() - 1; i >= start; i--) info.locked.remove(i).monitorExit();
+                info.highestLocked = highest;
+                return false;
+            }
+            addLocked(info, obj);
+        }
+        return true;
+    }
+
+    private static AnyPersistent[] sortedByAddress(AnyPersistent[] toLock) {
+        AnyPersistent[] objs = toLock.clone();
+        for (int i = 1; i < objs.length; i++) {
+            AnyPersistent obj = objs[i];
+            long addr = obj == null ? Long.MIN_VALUE : obj.getPointer().addr();
+            int j = i - 1;
+            while (j >= 0 && (objs[j] == null ? Long.MIN_VALUE : objs[j].getPointer().addr()) > addr) {
+                objs[j + 1] = objs[j];
+                j--;
+            }
+            objs[j + 1] = obj;
+        }
+        return objs;
     }
 
     public Transaction start(boolean block, AnyPersistent... toLock) {
         TransactionInfo info = tlInfo.get();
         // trace("start transaction, block = %s, depth = %d, this = %s", block, info.depth, this);
-        ArrayList<AnyPersistent> objs = new ArrayList<>();
-        ArrayList<AnyPersistent> lockedObjs = new ArrayList<>();
-        for (AnyPersistent obj : toLock) {
-            if (obj != null) objs.add(obj);
-        }
-        boolean didLock = AnyPersistent.monitorEnter(objs, lockedObjs, block);
-        if (!didLock && !block) {
-            // trace("failed to get transaction locks");
-            // assert(lockedObjs.isEmpty());
+        if (toLock.length > 0 && !lockInOrder(info, block, toLock)) {
             throw new TransactionRetryException("failed to get transaction locks");
         }
-        info.locked.addAll(lockedObjs);
         // trace(true, "in start, depth = %d, state = %s", info.depth, info.state);
         if (info.depth == 1 && info.state == Transaction.State.None) {
+            MappedPool mapped = MappedPool.instance;
+            if (mapped != null) mapped.begin(info.timeout);
+            else nativeStartTransaction();
             info.state = Transaction.State.Active;
-            nativeStartTransaction();
         }
         return this;
     }
@@ -105,12 +149,25 @@ public class XTransaction implements Transaction {
                 info.depth--;
                 return;
             }
-            nativeEndTransaction();
+            long start = Stats.nanoTime();
+            MappedPool mapped = MappedPool.instance;
+            if (mapped != null) mapped.end();
+            else nativeEndTransaction();
+            Stats.current.latencies.commits.recordSince(start);
+            info.snapshots.clear();
+            SlabArena.transactionEnded(info, true);
+            HeapStats.transactionEnded(info, true);
+            PersistentConcurrentHashMapInternal.transactionEnded(info, true);
             info.state = Transaction.State.Committed;
             for (AnyPersistent obj : info.constructions) {
                 ObjectCache.committedConstruction(obj);
             }
             info.constructions.clear();
+            for (AnyPersistent obj : info.freed) {
+                ObjectCache.committedFree(obj);
+            }
+            info.freed.clear();
+            info.freeCount = 0;
             releaseLocks();
         }
         info.depth--;
@@ -125,9 +182,22 @@ public class XTransaction implements Transaction {
             return;
         }
         if (info.depth == 1) {
-            nativeAbortTransaction();
+            MappedPool mapped = MappedPool.instance;
+            if (mapped != null) mapped.abort();
+            else nativeAbortTransaction();
+            info.snapshots.clear();
+            SlabArena.transactionEnded(info, false);
+            HeapStats.transactionEnded(info, false);
+            PersistentConcurrentHashMapInternal.transactionEnded(info, false);
             // trace("nativeAbortTransaction called");
+            for (AnyPersistent obj : info.constructions) {
+                ObjectCache.abortedConstruction(obj);
+            }
             info.constructions.clear();
+            info.freed.clear();
+            info.referenceDeltas.clear();
+            info.unfreed = 0;
+            info.freeCount = 0;
             // trace("abort: constructions cleared");
             info.state = Transaction.State.Aborted;
             releaseLocks();
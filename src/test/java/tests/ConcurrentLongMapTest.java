@@ -0,0 +1,142 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package tests;
+
+import lib.util.persistent.ConcurrentLongMap;
+import java.util.HashMap;
+import java.util.Random;
+
+public class ConcurrentLongMapTest {
+    static boolean verbose = false;
+
+    public static void main(String[] args) {
+        verbose = true;
+        run();
+    }
+
+    public static boolean run() {
+        System.out.println("****************ConcurrentLongMap Tests****************");
+        return testBasic() && testReservedKey() && testAgainstHashMap() && testMultithreaded();
+    }
+
+    public static boolean testBasic() {
+        if (verbose) System.out.println("****************Testing basic operations***************");
+        ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+        assert(map.get(1) == null);
+        assert(map.put(1, "a") == null);
+        assert(map.put(1, "b").equals("a"));
+        assert(map.putIfAbsent(1, "c").equals("b"));
+        assert(map.putIfAbsent(2, "c") == null);
+        assert(map.size() == 2);
+        String two = map.get(2);
+        assert(!map.remove(2, new String("c")));     // only the same value
+        assert(map.remove(2, two));
+        assert(map.remove(1).equals("b"));
+        assert(map.remove(1) == null);
+        assert(map.size() == 0);
+        for (long k = 1; k <= 1000; k++) map.put(k, "v");
+        map.clear();
+        assert(map.size() == 0 && map.get(5) == null);
+        return true;
+    }
+
+    public static boolean testReservedKey() {
+        if (verbose) System.out.println("****************Testing key 0**************************");
+        ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+        try {
+            map.put(0, "zero");
+            assert(false);
+        }
+        catch (IllegalArgumentException e) {}
+        try {
+            map.putIfAbsent(0, "zero");
+            assert(false);
+        }
+        catch (IllegalArgumentException e) {}
+        // fill the segments so key 0's probe run starts inside a run of live entries
+        for (long k = 1; k <= 10_000; k++) map.put(k, Long.toString(k));
+        assert(map.get(0) == null);
+        assert(map.remove(0) == null);
+        assert(!map.remove(0, "1"));
+        assert(map.size() == 10_000);
+        for (long k = 1; k <= 10_000; k++) assert(map.get(k).equals(Long.toString(k)));
+        return true;
+    }
+
+    // random puts and removes over a small key range, so probe runs collide, checked against HashMap
+    public static boolean testAgainstHashMap() {
+        if (verbose) System.out.println("****************Testing against HashMap****************");
+        ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+        HashMap<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(4096) - 2048;
+            if (key == 0) continue;
+            if (random.nextInt(3) == 0) assert(equal(map.remove(key), expected.remove(key)));
+            else {
+                Long value = (long)i;
+                assert(equal(map.put(key, value), expected.put(key, value)));
+            }
+        }
+        assert(map.size() == expected.size());
+        for (long key = -2048; key < 2048; key++) {
+            if (key != 0) assert(equal(map.get(key), expected.get(key)));
+        }
+        int[] count = new int[1];
+        map.forEachValue(v -> count[0]++);
+        assert(count[0] == expected.size());
+        return true;
+    }
+
+    public static boolean testMultithreaded() {
+        if (verbose) System.out.println("****************Testing concurrent use*****************");
+        ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+        int nThreads = 8, perThread = 20_000;
+        Thread[] ts = new Thread[nThreads];
+        boolean[] removed = new boolean[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            int id = t;
+            long base = (long)t * perThread + 1;
+            ts[t] = new Thread(() -> {
+                for (long k = base; k < base + perThread; k++) map.put(k, k);
+                boolean ok = true;
+                for (long k = base; k < base + perThread; k += 2) ok &= equal(map.remove(k), k);
+                removed[id] = ok;
+            });
+            ts[t].start();
+        }
+        try {
+            for (Thread t : ts) t.join();
+        } catch (InterruptedException e) { e.printStackTrace(); }
+        for (boolean ok : removed) assert(ok);
+        assert(map.size() == nThreads * perThread / 2);
+        for (long k = 1; k <= (long)nThreads * perThread; k++) {
+            Long v = map.get(k);
+            assert((k - 1) % 2 == 0 ? v == null : equal(v, k));
+        }
+        return true;
+    }
+
+    private static boolean equal(Long a, Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
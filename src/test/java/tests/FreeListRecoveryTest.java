@@ -0,0 +1,139 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package tests;
+
+import lib.util.persistent.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+import java.io.File;
+import java.io.IOException;
+
+// Dropping a long list frees it in chunks, the rest queued in the heap after each one commits. Three JVMs
+// share one pool: the first builds the list, the second drops it and halts part way through freeing it,
+// and the third reopens the heap, which must free what was left, and nothing else.
+public class FreeListRecoveryTest {
+    static boolean verbose = false;
+    static final String PHASE = "tests.freeListRecovery.phase";
+    static final int LENGTH = 4000;
+    static final int CHUNK = 16;
+    static final int NODE_SIZE = 160;       // 1280 byte regions, a size class of their own in this heap
+    static final long NODE_CLASS = 2048;
+    static final int HALTED = 3;
+    static final String HOLDER = "tests.free_list_recovery_holder";
+    static final String KEPT = "tests.free_list_recovery_kept";
+
+    public static void main(String[] args) {
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        verbose = true;
+        if (!run()) System.exit(1);
+    }
+
+    public static boolean run() {
+        System.out.println("****************Free List Recovery Tests***************");
+        String phase = System.getProperty(PHASE);
+        if (phase == null) return testRecovery();
+        switch (phase) {
+            case "create": return create();
+            case "drop": return drop();
+            case "recover": return recover();
+            default: throw new IllegalArgumentException(phase);
+        }
+    }
+
+    public static boolean testRecovery() {
+        if (verbose) System.out.println("****************Testing recovery***********************");
+        File pool = null;
+        try {
+            pool = File.createTempFile("pcj_" + FreeListRecoveryTest.class.getSimpleName(), ".pool");
+            pool.delete();
+            return runPhase(pool, "create", 0) && runPhase(pool, "drop", HALTED) && runPhase(pool, "recover", 0);
+        }
+        catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            if (pool != null) pool.delete();
+        }
+    }
+
+    static boolean runPhase(File pool, String phase, int expected) throws IOException, InterruptedException {
+        Process child = PersistentTestRunner.startChild(FreeListRecoveryTest.class, pool.getPath(), "-Dpcj.heapStats=true", "-Dpcj.freeChunk=" + CHUNK, "-D" + PHASE + "=" + phase);
+        int status = child.waitFor();
+        if (status != expected) System.out.println("phase " + phase + " exited with " + status + ", expected " + expected);
+        return status == expected;
+    }
+
+    // built in a JVM of its own, so the list holds no counts for live instances when it is dropped
+    @SuppressWarnings("unchecked")
+    static boolean create() {
+        PersistentArray<PersistentArray> holder = new PersistentArray<>(1);
+        ObjectDirectory.put(HOLDER, holder);
+        PersistentArray<PersistentLong> kept = new PersistentArray<>(100);
+        for (int i = 0; i < kept.length(); i++) kept.set(i, new PersistentLong(i));
+        ObjectDirectory.put(KEPT, kept);
+        PersistentArray<PersistentArray> head = null;
+        for (int i = 0; i < LENGTH; i++) {
+            PersistentArray<PersistentArray> node = new PersistentArray<>(NODE_SIZE);
+            node.set(0, head);
+            head = node;
+        }
+        holder.set(0, head);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    static boolean drop() {
+        assert(listRegions() == LENGTH);
+        PersistentArray<PersistentArray> holder = ObjectDirectory.get(HOLDER, PersistentArray.class);
+        Thread watcher = new Thread(() -> {
+            while (listRegions() > LENGTH / 2) Util.sleep(1);
+            Runtime.getRuntime().halt(HALTED);
+        });
+        watcher.setDaemon(true);
+        watcher.start();
+        holder.set(0, null);
+        while (listRegions() > 0) Util.sleep(1);        // all but the first chunk are freed on another thread
+        System.out.println("list freed before the JVM could be halted");
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    static boolean recover() {
+        if (verbose) System.out.println("list regions after recovery: " + listRegions());
+        assert(listRegions() == 0);
+        // the nodes predate this JVM's open, yet their frees are counted by type
+        HeapStats.TypeUsage arrays = HeapStats.current.snapshot(-1, -1, -1).getTypes().get(PersistentArray.class.getName());
+        assert(arrays != null && arrays.getFreed() > 0);
+        assert(ObjectDirectory.get(HOLDER, PersistentArray.class).get(0) == null);
+        PersistentArray<PersistentLong> kept = ObjectDirectory.get(KEPT, PersistentArray.class);
+        for (int i = 0; i < kept.length(); i++) assert(kept.get(i).longValue() == i);
+        return true;
+    }
+
+    // the root's own maps keep some of what they allocate, so only the list's size class is counted
+    static long listRegions() {
+        for (HeapStats.SizeClass c : HeapStats.current.snapshot(-1, -1, -1).getSizeClasses()) {
+            if (c.getLimit() == NODE_CLASS) return c.getCount();
+        }
+        return 0;
+    }
+}
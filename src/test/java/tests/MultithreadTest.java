@@ -23,6 +23,7 @@ package tests;
 
 import lib.util.persistent.*;
 import lib.util.persistent.spi.PersistentMemoryProvider;
+import java.util.concurrent.CountDownLatch;
 
 public class MultithreadTest {
 
@@ -41,7 +42,7 @@ public class MultithreadTest {
 
     public static boolean run() {
         System.out.println("****************Multithread Tests**********************");
-        return testBasic();
+        return testBasic() && testLaneExhaustion();
     }
 
     public static boolean testBasic() {
@@ -80,4 +81,45 @@ public class MultithreadTest {
         }
         return true;
     }
+
+    // More open transactions than the mapped pool has undo lanes, all waiting on an object locked by one
+    // still waiting for a lane: that one has to give up its lock and retry.
+    public static boolean testLaneExhaustion() {
+        if (verbose) System.out.println("****************Testing lane exhaustion****************");
+        final int holders = 64;
+        PersistentArray<PersistentLong> shared = new PersistentArray<>(1);
+        CountDownLatch started = new CountDownLatch(holders);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[holders + 1];
+        for (int i = 0; i < holders; i++) {
+            threads[i] = new Thread(() -> {
+                Transaction.run(() -> {
+                    started.countDown();
+                    try { go.await(); } catch (InterruptedException e) { throw new RuntimeException(e); }
+                    Transaction.run(() -> shared.set(0, null), shared);
+                });
+            });
+        }
+        threads[holders] = new Thread(() -> Transaction.run(() -> {}, shared));
+        for (Thread t : threads) t.setDaemon(true);
+        try {
+            for (int i = 0; i < holders; i++) threads[i].start();
+            long waiting;
+            do {        // until all but those left without a lane have started
+                waiting = started.getCount();
+                Thread.sleep(20);
+            } while (waiting != started.getCount());
+            threads[holders].start();
+            Thread.sleep(100);
+            go.countDown();
+            long deadline = System.currentTimeMillis() + 30_000;
+            for (Thread t : threads) t.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+        for (Thread t : threads) assert(!t.isAlive());
+        return true;
+    }
 }
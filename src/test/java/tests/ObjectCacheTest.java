@@ -0,0 +1,121 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package tests;
+
+import lib.util.persistent.*;
+import java.util.concurrent.CountDownLatch;
+
+// The bounded object cache (-Dpcj.objectCache.capacity): it holds at most that many objects strongly,
+// evicted objects come back from the heap intact, and an object the application still holds keeps its
+// identity after eviction, also when several threads miss on it at once. Without a bounded cache in this
+// JVM, the tests run in one of their own.
+public class ObjectCacheTest {
+    static boolean verbose = false;
+    static final int CAPACITY = 64;
+
+    public static void main(String[] args) {
+        verbose = true;
+        if (!run()) System.exit(1);
+    }
+
+    public static boolean run() {
+        System.out.println("****************ObjectCache Tests**********************");
+        if (Config.OBJECT_CACHE_CAPACITY == 0) return PersistentTestRunner.runInChild(ObjectCacheTest.class, "-Dpcj.objectCache.capacity=" + CAPACITY);
+        return testEviction() && testReadmission() && testConcurrentMisses();
+    }
+
+    public static boolean testEviction() {
+        if (verbose) System.out.println("****************Testing eviction***********************");
+        Stats.enable(true);
+        long evictions = Stats.current.objectCache.evictions.get();
+        int n = 8 * Config.OBJECT_CACHE_CAPACITY;
+        PersistentArray<PersistentLong> array = new PersistentArray<>(n);
+        for (int i = 0; i < n; i++) array.set(i, new PersistentLong(i));
+        assert(ObjectCache.retainedCount() <= Config.OBJECT_CACHE_CAPACITY);
+        assert(Stats.current.objectCache.evictions.get() > evictions);
+        for (int i = 0; i < n; i++) assert(array.get(i).longValue() == i);
+        assert(ObjectCache.retainedCount() <= Config.OBJECT_CACHE_CAPACITY);
+        if (verbose) System.out.println("retained " + ObjectCache.retainedCount() + ", evicted " + (Stats.current.objectCache.evictions.get() - evictions));
+        return true;
+    }
+
+    public static boolean testReadmission() {
+        if (verbose) System.out.println("****************Testing readmission********************");
+        int n = 8 * Config.OBJECT_CACHE_CAPACITY;
+        PersistentArray<PersistentLong> array = new PersistentArray<>(n);
+        for (int i = 0; i < n; i++) array.set(i, new PersistentLong(i));
+        PersistentLong held = array.get(0);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 1; i < n; i++) assert(array.get(i).longValue() == i);
+            System.gc();
+            // evicted by now, but still reachable, so a lookup must not build a second instance
+            assert(array.get(0) == held);
+        }
+        held = null;
+        System.gc();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < n; i++) assert(array.get(i).longValue() == i);
+        }
+        assert(ObjectCache.retainedCount() <= Config.OBJECT_CACHE_CAPACITY);
+        return true;
+    }
+
+    public static boolean testConcurrentMisses() {
+        if (verbose) System.out.println("****************Testing concurrent misses**************");
+        int n = 64 * Config.OBJECT_CACHE_CAPACITY;
+        int nThreads = 4;
+        PersistentArray<PersistentLong> array = new PersistentArray<>(n);
+        for (int i = 0; i < n; i++) array.set(i, new PersistentLong(i));
+        for (int round = 0; round < 10; round++) {
+            System.gc();
+            // most elements are evicted and collected by now, so every thread misses on them together
+            PersistentLong[][] seen = new PersistentLong[nThreads][n];
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] ts = new Thread[nThreads];
+            for (int t = 0; t < nThreads; t++) {
+                PersistentLong[] mine = seen[t];
+                ts[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {throw new RuntimeException(e);}
+                    for (int i = 0; i < n; i++) mine[i] = array.get(i);
+                });
+                ts[t].start();
+            }
+            start.countDown();
+            try {
+                for (Thread t : ts) t.join();
+            }
+            catch (InterruptedException e) {throw new RuntimeException(e);}
+            for (int i = 0; i < n; i++) {
+                assert(seen[0][i].longValue() == i);
+                for (int t = 1; t < nThreads; t++) assert(seen[t][i] == seen[0][i]);
+            }
+        }
+        // a count lost to a duplicate instance would free an element once the instances are collected
+        System.gc();
+        Util.sleep(100);
+        for (int i = 0; i < n; i++) assert(array.get(i).longValue() == i);
+        return true;
+    }
+}
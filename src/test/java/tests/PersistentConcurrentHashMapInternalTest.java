@@ -0,0 +1,68 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package tests;
+
+import lib.util.persistent.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+import lib.xpersistent.PersistentConcurrentHashMapInternal;
+
+// The long-to-long map behind the root's cycle candidates and pending frees, used from inside other
+// transactions. Slot sentinels made by a transaction that aborts must go with it: lookups start from
+// them, while iteration and size() walk from the head.
+public class PersistentConcurrentHashMapInternalTest {
+    static boolean verbose = false;
+    static final int SIZE = 2000;
+
+    public static void main(String[] args) {
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        verbose = true;
+        if (!run()) System.exit(1);
+    }
+
+    public static boolean run() {
+        System.out.println("****************PersistentConcurrentHashMapInternal Tests*");
+        return testAbort();
+    }
+
+    public static boolean testAbort() {
+        if (verbose) System.out.println("****************Testing abort**************************");
+        PersistentConcurrentHashMapInternal map = new PersistentConcurrentHashMapInternal();
+        for (long k = 0; k < SIZE; k++) map.put(k, k + 1);
+        // removals log the nodes ahead of the new slots' sentinels before the puts make them
+        try {
+            Transaction.run(() -> {
+                for (long k = 0; k < SIZE; k++) map.remove(k);
+                for (long k = SIZE; k < 2 * SIZE; k++) map.put(k, k + 1);
+                throw new RuntimeException("abort");
+            });
+        }
+        catch (RuntimeException e) {}
+        for (long k = 2 * SIZE; k < 3 * SIZE; k++) map.put(k, k + 1);
+        assert(map.size() == 2 * SIZE);
+        for (long k = 0; k < 3 * SIZE; k++) {
+            long expected = k < SIZE || k >= 2 * SIZE ? k + 1 : -1;
+            assert(map.put(k, k + 2) == expected);
+        }
+        assert(map.size() == 3 * SIZE);
+        return true;
+    }
+}
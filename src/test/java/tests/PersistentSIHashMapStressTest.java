@@ -0,0 +1,86 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package tests;
+
+import lib.util.persistent.*;
+import lib.util.persistent.spi.PersistentMemoryProvider;
+
+// Concurrent insertions while a bounded cache evicts the map's nodes and collector threads, or the
+// background cycle collector, release their counts, so that growing the map times out on node locks and
+// retries. Small free chunks make many short drains of the pending frees, which abort and retry alongside
+// the collector's. Each round is a fresh pool in a JVM of its own, with a small young generation to make
+// collections, and so retries, frequent.
+public class PersistentSIHashMapStressTest {
+    static boolean verbose = false;
+    static final int ROUNDS = 4;
+    static final int SIZE = 2000;
+    static final int THREADS = 4;
+    static final String[][] MODES = {
+        {"-Dpcj.objectCache.capacity=1000", "-Dpcj.objectCache.collectorThreads=4"},
+        {"-Dpcj.objectCache.capacity=200", "-Dpcj.backgroundCycleCollection=true"},
+        {"-Dpcj.objectCache.capacity=200", "-Dpcj.backgroundCycleCollection=true", "-Dpcj.freeChunk=2"},
+    };
+
+    public static void main(String[] args) {
+        PersistentMemoryProvider.getDefaultProvider().getHeap().open();
+        verbose = true;
+        if (!run()) System.exit(1);
+    }
+
+    public static boolean run() {
+        System.out.println("****************PersistentSIHashMap Stress Tests*******");
+        if (Config.OBJECT_CACHE_CAPACITY > 0) return testInsertion();
+        for (String[] mode : MODES) {
+            String[] properties = new String[mode.length + 1];
+            System.arraycopy(mode, 0, properties, 0, mode.length);
+            properties[mode.length] = "-Xmn8m";
+            for (int round = 0; round < ROUNDS; round++) {
+                if (!PersistentTestRunner.runInChild(PersistentSIHashMapStressTest.class, properties)) return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean testInsertion() {
+        if (verbose) System.out.println("****************Testing insertion**********************");
+        final PersistentSIHashMap<PersistentInteger, PersistentString> map = new PersistentSIHashMap<>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            final int ii = i;
+            threads[i] = new Thread(() -> {
+                for (int j = ii; j < SIZE; j += THREADS) {
+                    map.put(new PersistentInteger(j), new PersistentString("test_" + j));
+                }
+            });
+            threads[i].start();
+        }
+        try {
+            for (int i = 0; i < threads.length; i++)
+                threads[i].join();
+        } catch (Exception e) { e.printStackTrace(); }
+        assert(map.size() == SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            assert(map.get(new PersistentInteger(i)).equals(new PersistentString("test_" + i)));
+        }
+        return true;
+    }
+}
@@ -25,6 +25,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import lib.util.persistent.spi.PersistentMemoryProvider;
 
 public class PersistentTestRunner {
@@ -62,4 +64,38 @@ public class PersistentTestRunner {
         }
         System.out.println(passCount + "/" + testCount + " tests passed.");
     }
+
+    // Settings such as the object cache's capacity are fixed when Config loads, so tests of other
+    // settings run their main in a JVM of their own, on a mapped pool at poolPath, sharing this console
+    public static Process startChild(Class<?> test, String poolPath, String... properties) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-ea");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dpcj.pool.backend=mapped");
+        command.add("-Dpcj.pool.path=" + poolPath);
+        command.add("-Dpcj.pool.size=256m");
+        command.add("-Dpcj.pool.sync=false");
+        command.addAll(Arrays.asList(properties));
+        command.add(test.getName());
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    // runs test's main to completion on a fresh pool; true if it exited normally
+    public static boolean runInChild(Class<?> test, String... properties) {
+        File pool = null;
+        try {
+            pool = File.createTempFile("pcj_" + test.getSimpleName(), ".pool");
+            pool.delete();
+            return startChild(test, pool.getPath(), properties).waitFor() == 0;
+        }
+        catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            if (pool != null) pool.delete();
+        }
+    }
 }
@@ -0,0 +1,162 @@
+/* Copyright (C) 2017  Intel Corporation
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 only, as published by the Free Software Foundation.
+ * This file has been designated as subject to the "Classpath"
+ * exception as provided in the LICENSE file that accompanied
+ * this code.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License version 2 for more details (a copy
+ * is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package tests;
+
+import lib.util.persistent.*;
+import lib.xpersistent.UncheckedPersistentMemoryRegion;
+
+// Deferred reference counting (-Dpcj.deferredRefCounting): a transaction's count changes are coalesced per
+// object and applied when the top-level transaction commits, net increments before decrements, and dropped
+// if it aborts. Counts are read from object headers. Without deferred counting in this JVM, the tests run
+// in one of their own.
+public class ReferenceDeltasTest {
+    static boolean verbose = false;
+
+    public static void main(String[] args) {
+        verbose = true;
+        if (!run()) System.exit(1);
+    }
+
+    public static boolean run() {
+        System.out.println("****************ReferenceDeltas Tests******************");
+        if (!Config.DEFERRED_REFERENCE_COUNTING) return PersistentTestRunner.runInChild(ReferenceDeltasTest.class, "-Dpcj.deferredRefCounting=true");
+        return testDeferred() && testCoalescing() && testLostAndRegained() && testManyObjects() && testAbort();
+    }
+
+    // REF_COUNT, the third header field; counts this JVM's instance as one reference
+    static int refCount(AnyPersistent obj) {
+        return new UncheckedPersistentMemoryRegion(obj.getPointer().addr()).getInt(Header.TYPE.getOffset(2));
+    }
+
+    public static boolean testDeferred() {
+        if (verbose) System.out.println("****************Testing deferral***********************");
+        PersistentArray<PersistentLong> array = new PersistentArray<>(4);
+        PersistentLong x = new PersistentLong(1);
+        int base = refCount(x);
+        Transaction.run(() -> {
+            array.set(0, x);
+            assert(refCount(x) == base);
+            Transaction.run(() -> array.set(1, x));
+            assert(refCount(x) == base);    // a nested commit applies nothing
+        });
+        assert(refCount(x) == base + 2);
+        return true;
+    }
+
+    public static boolean testCoalescing() {
+        if (verbose) System.out.println("****************Testing coalescing*********************");
+        PersistentArray<PersistentLong> array = new PersistentArray<>(4);
+        PersistentLong x = new PersistentLong(2);
+        PersistentLong y = new PersistentLong(3);
+        int baseX = refCount(x), baseY = refCount(y);
+        Transaction.run(() -> {
+            for (int i = 0; i < 100; i++) {
+                array.set(0, x);
+                array.set(0, y);
+                array.set(0, null);
+            }
+            array.set(1, x);
+            array.set(2, x);
+        });
+        assert(refCount(x) == baseX + 2);
+        assert(refCount(y) == baseY);
+        return true;
+    }
+
+    // an object whose only stored reference is replaced by another to it must keep its count
+    public static boolean testLostAndRegained() {
+        if (verbose) System.out.println("****************Testing increments first***************");
+        PersistentArray<PersistentLong> from = new PersistentArray<>(2);
+        PersistentArray<PersistentLong> to = new PersistentArray<>(2);
+        PersistentLong x = new PersistentLong(4);
+        from.set(0, x);
+        int base = refCount(x);
+        Transaction.run(() -> {
+            from.set(0, null);
+            to.set(0, x);
+            from.set(1, x);
+            from.set(1, null);
+        });
+        assert(refCount(x) == base);
+        assert(to.get(0) == x && to.get(0).longValue() == 4);
+        Transaction.run(() -> {
+            to.set(0, null);
+            to.set(1, x);
+            from.set(0, x);
+        });
+        assert(refCount(x) == base + 1);
+        return true;
+    }
+
+    // more objects than the table starts with, references moved around within one transaction
+    public static boolean testManyObjects() {
+        if (verbose) System.out.println("****************Testing many objects*******************");
+        int n = 200;
+        PersistentArray<PersistentLong> array = new PersistentArray<>(n);
+        PersistentLong[] values = new PersistentLong[n];
+        int[] expected = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = new PersistentLong(i);
+            array.set(i, values[i]);
+        }
+        for (int i = 0; i < n; i++) expected[i] = refCount(values[i]);
+        int[] slots = new int[n];
+        for (int i = 0; i < n; i++) slots[i] = i;
+        Transaction.run(() -> {
+            for (int round = 1; round <= 3; round++) {
+                for (int i = 0; i < n; i++) {
+                    int v = (i * 7 + round) % n;
+                    array.set(i, values[v]);
+                    slots[i] = v;
+                }
+            }
+        });
+        for (int i = 0; i < n; i++) expected[i]--;
+        for (int i = 0; i < n; i++) expected[slots[i]]++;
+        for (int i = 0; i < n; i++) {
+            assert(refCount(values[i]) == expected[i]);
+            assert(array.get(i).longValue() == slots[i]);
+        }
+        return true;
+    }
+
+    public static boolean testAbort() {
+        if (verbose) System.out.println("****************Testing abort**************************");
+        PersistentArray<PersistentLong> array = new PersistentArray<>(2);
+        PersistentLong x = new PersistentLong(5);
+        int base = refCount(x);
+        try {
+            Transaction.run(() -> {
+                array.set(0, x);
+                array.set(1, x);
+                throw new IllegalStateException("abort");
+            });
+            assert(false);
+        }
+        catch (IllegalStateException e) {}
+        assert(refCount(x) == base);
+        assert(array.get(0) == null);
+        Transaction.run(() -> array.set(1, x));
+        assert(refCount(x) == base + 1);
+        return true;
+    }
+}